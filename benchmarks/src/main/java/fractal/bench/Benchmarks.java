@@ -0,0 +1,34 @@
+package fractal.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Точка входа benchmarks.jar: запускает JMH с теми же аргументами, но
+ * по умолчанию сохраняет результаты в JSON (jmh-result.json), чтобы
+ * прогоны можно было сравнивать. Свои -rf и -rff заменяют умолчание.
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar RenderBenchmark -p threads=4
+ * </pre>
+ */
+public final class Benchmarks
+{
+    private Benchmarks()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        List<String> arguments = new ArrayList<String>(Arrays.asList(args));
+        if (!arguments.contains("-rf")) {
+            arguments.add("-rf");
+            arguments.add("json");
+        }
+        if (!arguments.contains("-rff")) {
+            arguments.add("-rff");
+            arguments.add("jmh-result.json");
+        }
+        org.openjdk.jmh.Main.main(arguments.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,76 @@
+package fractal.bench;
+
+import fractal.JImageDisplay;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Запись готовых цветов кадра в растр JImageDisplay: по одному пикселю
+ * через drawPixel, как раньше, и плитками через drawTile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector",
+    "-Djava.awt.headless=true" })
+public class BlitBenchmark
+{
+    @Param({ "400", "800" })
+    public int size;
+
+    @Param({ "16", "64" })
+    public int tile;
+
+    private JImageDisplay display;
+    private int[] frame;
+    private int[] tileRgb;
+
+    @Setup
+    public void setUp()
+    {
+        display = new JImageDisplay(size, size);
+        Random random = new Random(42);
+        frame = new int[size * size];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = random.nextInt(1 << 24);
+        }
+        tileRgb = new int[tile * tile];
+        System.arraycopy(frame, 0, tileRgb, 0, tileRgb.length);
+    }
+
+    @Benchmark
+    public JImageDisplay drawPixel()
+    {
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                display.drawPixel(x, y, frame[y * size + x]);
+            }
+        }
+        return display;
+    }
+
+    @Benchmark
+    public JImageDisplay drawTile()
+    {
+        for (int y = 0; y < size; y += tile) {
+            int height = Math.min(tile, size - y);
+            for (int x = 0; x < size; x += tile) {
+                display.drawTile(x, y, Math.min(tile, size - x), height, tileRgb);
+            }
+        }
+        return display;
+    }
+}
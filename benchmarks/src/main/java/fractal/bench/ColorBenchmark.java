@@ -0,0 +1,82 @@
+package fractal.bench;
+
+import fractal.ColorMap;
+import fractal.FractalGenerator;
+import fractal.IterationField;
+import fractal.StandardPalette;
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Раскраска готового поля итераций начальной области: построение
+ * таблицы цветов, раскраска всего поля по таблице и, для сравнения,
+ * прежний способ - Color.HSBtoRGB на каждый пиксель.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector",
+    "-Djava.awt.headless=true" })
+public class ColorBenchmark
+{
+    @Param({ "HUE", "FIRE", "GRAY" })
+    public StandardPalette palette;
+
+    @Param({ "false", "true" })
+    public boolean smooth;
+
+    @Param({ "400", "800" })
+    public int size;
+
+    private IterationField field;
+    private ColorMap colors;
+    private int[] rgb;
+
+    @Setup
+    public void setUp() throws InterruptedException
+    {
+        FractalGenerator fractal = Views.generator("mandelbrot");
+        colors = new ColorMap(palette, fractal.getMaxIterations(), smooth);
+        field = Views.field(fractal, Views.view(fractal, "initial", size),
+            size, colors);
+        rgb = new int[size * size];
+    }
+
+    @Benchmark
+    public ColorMap buildTable()
+    {
+        return new ColorMap(palette, field.maxIterations, smooth);
+    }
+
+    @Benchmark
+    public int[] applyTable()
+    {
+        colors.apply(field, rgb);
+        return rgb;
+    }
+
+    @Benchmark
+    public int[] hsbPerPixel()
+    {
+        int[] iterations = field.iterations;
+        for (int i = 0; i < iterations.length; i++) {
+            int count = iterations[i];
+            rgb[i] = (count == -1) ? 0
+                : Color.HSBtoRGB(0.7f + (float) count / 200f, 1f, 1f);
+        }
+        return rgb;
+    }
+}
@@ -0,0 +1,109 @@
+package fractal.bench;
+
+import fractal.FractalGenerator;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Время numIterations на одну точку для каждого генератора на трех
+ * постоянных наборах точек: внутри множества (итерации до предела или
+ * до найденного цикла), у границы (сотни итераций) и снаружи (быстрый
+ * выход). Генератор formula без проверки кардиоиды, поэтому внутри
+ * множества он с mandelbrot не сравним; у границы и снаружи они считают
+ * одно и то же.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class PointBenchmark
+{
+    static final int POINTS = 256;
+
+    @Param({ "mandelbrot", "tricorn", "burningship", "formula" })
+    public String generator;
+
+    @Param({ "interior", "boundary", "exterior" })
+    public String region;
+
+    private FractalGenerator fractal;
+    private double[] xs;
+    private double[] ys;
+
+    /**
+     * Отбирает POINTS точек нужного вида из сетки 512 x 512 начальной
+     * области; порядок перемешивается с постоянным зерном.
+     */
+    @Setup
+    public void setUp()
+    {
+        fractal = Views.generator(generator);
+        Rectangle2D.Double range = new Rectangle2D.Double();
+        fractal.getInitialRange(range);
+
+        int grid = 512;
+        List<double[]> candidates = new ArrayList<double[]>();
+        for (int row = 0; row < grid; row++) {
+            double y = FractalGenerator.getCoord(range.y, range.y + range.height,
+                grid, row);
+            for (int col = 0; col < grid; col++) {
+                double x = FractalGenerator.getCoord(range.x,
+                    range.x + range.width, grid, col);
+                if (matches(fractal.numIterations(x, y))) {
+                    candidates.add(new double[] { x, y });
+                }
+            }
+        }
+        if (candidates.size() < POINTS) {
+            throw new IllegalStateException("мало точек вида " + region);
+        }
+        Collections.shuffle(candidates, new Random(42));
+        xs = new double[POINTS];
+        ys = new double[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            xs[i] = candidates.get(i)[0];
+            ys[i] = candidates.get(i)[1];
+        }
+    }
+
+    private boolean matches(int iterations)
+    {
+        switch (region) {
+            case "interior":
+                return iterations == -1;
+            case "boundary":
+                return iterations >= 100;
+            default:
+                return iterations >= 0 && iterations < 20;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public int numIterations()
+    {
+        int sum = 0;
+        for (int i = 0; i < POINTS; i++) {
+            sum += fractal.numIterations(xs[i], ys[i]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,80 @@
+package fractal.bench;
+
+import fractal.ColorMap;
+import fractal.FractalGenerator;
+import fractal.RenderEngine;
+import fractal.RenderMode;
+import fractal.StandardPalette;
+import fractal.TileCache;
+import fractal.Viewport;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Полный кадр Мандельброта через RenderEngine, от вызова render до
+ * renderFinished, для стандартных областей: начальной, среднего
+ * увеличения и глубокого (метод возмущений). Кэш плиток отключен, чтобы
+ * каждый кадр считался заново.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector",
+    "-Djava.awt.headless=true" })
+public class RenderBenchmark
+{
+    @Param({ "initial", "mid", "deep" })
+    public String view;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    @Param({ "400", "800" })
+    public int size;
+
+    @Param({ "FULL", "MARIANI_SILVER", "PROGRESSIVE" })
+    public RenderMode mode;
+
+    private FractalGenerator fractal;
+    private Viewport viewport;
+    private RenderEngine engine;
+    private ColorMap colors;
+
+    @Setup
+    public void setUp()
+    {
+        fractal = Views.generator("mandelbrot");
+        viewport = Views.view(fractal, view, size);
+        engine = new RenderEngine(threads, new TileCache(0));
+        colors = new ColorMap(StandardPalette.HUE, fractal.getMaxIterations(),
+            false);
+    }
+
+    /** Потоки пула каждого испытания иначе дожили бы до конца форка. **/
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        engine.shutdown();
+    }
+
+    @Benchmark
+    public long render() throws InterruptedException
+    {
+        return Views.render(engine, fractal, viewport, size, mode, colors)
+            .getComputedPixels();
+    }
+}
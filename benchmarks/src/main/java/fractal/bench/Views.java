@@ -0,0 +1,146 @@
+package fractal.bench;
+
+import fractal.BurningShip;
+import fractal.ColorMap;
+import fractal.FormulaCompiler;
+import fractal.FractalGenerator;
+import fractal.IterationField;
+import fractal.Mandelbrot;
+import fractal.RenderEngine;
+import fractal.RenderJob;
+import fractal.RenderListener;
+import fractal.RenderMode;
+import fractal.Tile;
+import fractal.TileCache;
+import fractal.Tricorn;
+import fractal.Viewport;
+import java.awt.geom.Rectangle2D;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Общие для тестов производительности генераторы и стандартные области.
+ */
+final class Views
+{
+    /** Точка на границе долины морских коньков для среднего увеличения. **/
+    private static final String MID_X = "-0.7436438870371587";
+    private static final String MID_Y = "0.1318259042053119";
+    private static final int MID_LEVEL = 12;
+
+    /**
+     * Точка Мисюревича c = i: граница множества с деталями на любой
+     * глубине; на уровне 50 пиксели уже считаются методом возмущений.
+     */
+    private static final String DEEP_X = "0";
+    private static final String DEEP_Y = "1";
+    private static final int DEEP_LEVEL = 50;
+
+    private Views()
+    {
+    }
+
+    /**
+     * Генератор по имени; formula - z^2 + c, скомпилированная
+     * FormulaCompiler, для сравнения с написанным вручную Mandelbrot.
+     */
+    static FractalGenerator generator(String name)
+    {
+        switch (name) {
+            case "mandelbrot":
+                return new Mandelbrot();
+            case "tricorn":
+                return new Tricorn();
+            case "burningship":
+                return new BurningShip();
+            case "formula":
+                return FormulaCompiler.compile("z^2 + c");
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    /**
+     * Область initial, mid или deep для кадра размером size.
+     */
+    static Viewport view(FractalGenerator fractal, String name, int size)
+    {
+        Rectangle2D.Double range = new Rectangle2D.Double();
+        fractal.getInitialRange(range);
+        Viewport viewport = Viewport.lattice(range, size);
+        switch (name) {
+            case "initial":
+                return viewport;
+            case "mid":
+                return dive(viewport, size, MID_X, MID_Y, MID_LEVEL);
+            case "deep":
+                return dive(viewport, size, DEEP_X, DEEP_Y, DEEP_LEVEL);
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    /**
+     * Увеличивает область levels раз вокруг пикселя, ближайшего к точке.
+     */
+    private static Viewport dive(Viewport viewport, int size, String x,
+        String y, int levels)
+    {
+        BigDecimal targetX = new BigDecimal(x);
+        BigDecimal targetY = new BigDecimal(y);
+        MathContext mc = new MathContext(60);
+        for (int level = 0; level < levels; level++) {
+            BigDecimal left = viewport.exactX(0, size, mc);
+            BigDecimal top = viewport.exactY(0, size, mc);
+            BigDecimal pixelWidth = viewport.exactX(1, size, mc).subtract(left);
+            BigDecimal pixelHeight = viewport.exactY(1, size, mc).subtract(top);
+            int col = targetX.subtract(left).divide(pixelWidth, mc).intValue();
+            int row = targetY.subtract(top).divide(pixelHeight, mc).intValue();
+            viewport = viewport.zoom(Math.max(0, Math.min(size - 1, col)),
+                Math.max(0, Math.min(size - 1, row)), size, true);
+        }
+        return viewport;
+    }
+
+    /**
+     * Рендерит кадр движком и ждет его завершения.
+     */
+    static RenderJob render(RenderEngine engine, FractalGenerator fractal,
+        Viewport viewport, int size, RenderMode mode, ColorMap colors)
+        throws InterruptedException
+    {
+        CountDownLatch done = new CountDownLatch(1);
+        RenderJob job = engine.render(fractal, viewport, size, mode, colors,
+            null, new RenderListener() {
+                public void tilesReady(List<Tile> tiles)
+                {
+                }
+
+                public void renderFinished(RenderJob job)
+                {
+                    done.countDown();
+                }
+            });
+        done.await();
+        return job;
+    }
+
+    /**
+     * Поле итераций кадра, посчитанное заново.
+     */
+    static IterationField field(FractalGenerator fractal, Viewport viewport,
+        int size, ColorMap colors) throws InterruptedException
+    {
+        RenderEngine engine = new RenderEngine(
+            RenderEngine.defaultParallelism(), new TileCache(0));
+        try {
+            return render(engine, fractal, viewport, size, RenderMode.FULL,
+                colors).field;
+        }
+        finally {
+            engine.shutdown();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package fractal;
+
+import java.awt.geom.Rectangle2D;
+
+/**
+* Этот класс является подклассом Fractal Generator. Он используется для вычисления фрактала "Пылающий корабль".
+ */
+public class BurningShip extends FractalGenerator
+{
+    /**
+     * Этот метод позволяет генератору фракталов указать,
+     *  какая часть * комплексной плоскости является наиболее
+     *  интересной для фрактала. * Ему передается прямоугольный объект,
+     *  и метод изменяет * поля прямоугольника, чтобы показать правильный
+     *  начальный диапазон для фрактала. * Эта реализация устанавливает
+     *  начальный диапазон равным x = -2, y = -2,5, * width = height = 4.
+     */
+    public void getInitialRange(Rectangle2D.Double range)
+    {
+        range.x = -2;
+        range.y = -2.5;
+        range.width = 4;
+        range.height = 4;
+    }
+    
+    /**
+     * Этот метод реализует итерационную функцию для фрактала "Пылающий корабль"
+     */
+    public int numIterations(double x, double y, int maxIterations)
+    {
+        return escape(x, y, 0, 0, 0, maxIterations, null, null, 0);
+    }
+    
+    /**
+     * Считает отрезок ряда пикселей; escape() встраивается в цикл.
+     */
+    @Override
+    public void computeRow(double xMin, double xMax, int size, int from,
+        double y, int[] iterations, int offset, int count, int maxIterations,
+        double[] orbits)
+    {
+        EscapeKernel kernel = EscapeKernel.vector();
+        if (kernel != null)
+        {
+            kernel.computeRow(EscapeKernel.BURNING_SHIP, maxIterations, xMin, xMax,
+                size, from, y, iterations, offset, count, orbits);
+            return;
+        }
+        
+        double xRange = xMax - xMin;
+        for (int i = 0; i < count; i++)
+        {
+            double x = xMin + (xRange * (double) (from + i) / (double) size);
+            iterations[offset + i] = escape(x, y, 0, 0, 0, maxIterations,
+                null, orbits, offset + i);
+        }
+    }
+    
+    /**
+     * Число итераций и дробная часть для плавной раскраски за один проход.
+     */
+    @Override
+    public void computeRowSmooth(double xMin, double xMax, int size,
+        int from, double y, int[] iterations, float[] fractions, int offset,
+        int count, int maxIterations, double[] orbits)
+    {
+        double xRange = xMax - xMin;
+        for (int i = 0; i < count; i++)
+        {
+            double x = xMin + (xRange * (double) (from + i) / (double) size);
+            iterations[offset + i] = escape(x, y, 0, 0, 0, maxIterations,
+                fractions, orbits, offset + i);
+        }
+    }
+    
+    /**
+     * Продолжает орбиту с сохраненного z, если оно есть, иначе считает
+     * точку с нуля.
+     */
+    @Override
+    public int continueIterations(double x, double y, int start,
+        int maxIterations, double[] orbits, int index, float[] fractions)
+    {
+        double zreal = orbits[2 * index];
+        double zimaginary = orbits[2 * index + 1];
+        if (Double.isNaN(zreal))
+        {
+            return escape(x, y, 0, 0, 0, maxIterations, fractions, orbits,
+                index);
+        }
+        return escape(x, y, zreal, zimaginary, start, maxIterations,
+            fractions, orbits, index);
+    }
+    
+    /**
+     * Итерационная функция для точки x + iy, начиная со значения
+     * zreal + i zimaginary на итерации iteration (для новой точки - с нуля).
+     * Возвращает -1, если точка не покинула область за maxIterations
+     * итераций; тогда, если orbits не null, туда записывается последнее z.
+     * Если fractions не null, в fractions[index] записывается дробная
+     * часть числа итераций покинувшей область точки.
+     */
+    private static int escape(double x, double y, double zreal,
+        double zimaginary, int iteration, int maxIterations, float[] fractions,
+        double[] orbits, int index)
+    {
+        /** сохраненная точка орбиты и номер итерации следующего сохранения. */
+        double savedReal = zreal;
+        double savedImaginary = zimaginary;
+        int nextSave = iteration + 1;
+        
+        /**
+           Вычислить Zn = (abs [Re (zn-1)] + i (abs [img (zn-1)])) ^ 2 + c, где значения - комплексные числа,
+        *  представленные zreal и zimaginary, Z0 = 0, а c - конкретная
+        *  точка во фрактале, который мы отображаем (задается x и y).
+        *  Он повторяется до тех пор, пока Z ^ 2> 4
+        *  (абсолютное значение Z больше 2) или пока не будет
+        *  достигнуто максимальное количество итераций.*/
+        
+        while (iteration < maxIterations &&
+               zreal * zreal + zimaginary * zimaginary < 4)
+        {
+            double zrealUpdated = zreal * zreal - zimaginary * zimaginary + x;
+            double zimaginaryUpdated = 2 * Math.abs(zreal)
+            * Math.abs(zimaginary) + y;
+            
+            zreal = zrealUpdated;
+            zimaginary = zimaginaryUpdated;
+            
+            iteration += 1;
+
+            /** точное повторение точки орбиты означает цикл. */
+            if (zreal == savedReal && zimaginary == savedImaginary)
+            {
+                iteration = maxIterations;
+                break;
+            }
+            if (iteration == nextSave)
+            {
+                savedReal = zreal;
+                savedImaginary = zimaginary;
+                nextSave <<= 1;
+            }
+        }
+        
+        /**
+          * Если количество максимальных итераций достигнуто, возвращает -1
+         */
+        if (iteration == maxIterations)
+        {
+            if (orbits != null)
+            {
+                orbits[2 * index] = zreal;
+                orbits[2 * index + 1] = zimaginary;
+            }
+            return -1;
+        }
+        
+        if (fractions != null)
+        {
+            fractions[index] = smoothFraction(zreal, zimaginary);
+        }
+        return iteration;
+    }
+    
+    /** 
+     * 
+     */
+    public String toString() {
+        return "Пылающий корабль";
+    }
+    
+}
@@ -0,0 +1,92 @@
+package fractal;
+
+import java.util.stream.IntStream;
+
+/**
+ * Таблица цветов, построенная по палитре для чисел итераций от 0 до
+ * maxIterations. Раскраска поля итераций сводится к выборке из таблицы,
+ * а в плавном режиме - к смешиванию двух соседних цветов таблицы
+ * по дробной части числа итераций.
+ */
+public final class ColorMap
+{
+    /** Цвет точек, не покинувших область. **/
+    public static final int INTERIOR_COLOR = 0;
+
+    public final Palette palette;
+    public final boolean smooth;
+
+    /**
+     * Предел итераций, для которого построена таблица; кадры, которые
+     * раскрашиваются ею, считаются с этим же пределом.
+     */
+    public final int maxIterations;
+
+    private final int[] lut;
+
+    public ColorMap(Palette palette, int maxIterations, boolean smooth)
+    {
+        this.palette = palette;
+        this.smooth = smooth;
+        this.maxIterations = maxIterations;
+        this.lut = new int[maxIterations + 2];
+        for (int i = 0; i < lut.length; i++) {
+            lut[i] = palette.color(i);
+        }
+    }
+
+    /**
+     * Цвет пикселя с заданным числом итераций и дробной частью.
+     */
+    public int color(int iteration, float fraction)
+    {
+        if (iteration < 0) {
+            return INTERIOR_COLOR;
+        }
+        int index = Math.min(iteration, lut.length - 2);
+        if (!smooth || fraction <= 0f) {
+            return lut[index];
+        }
+        return blend(lut[index], lut[index + 1], fraction);
+    }
+
+    /**
+     * Цвет пикселя поля с индексом index.
+     */
+    public int color(IterationField field, int index)
+    {
+        float fraction = (smooth && field.fractions != null)
+            ? field.fractions[index] : 0f;
+        return color(field.iterations[index], fraction);
+    }
+
+    /**
+     * Раскрашивает все поле в массив rgb (построчно) параллельно по рядам.
+     */
+    public void apply(IterationField field, int[] rgb)
+    {
+        int width = field.width;
+        IntStream.range(0, field.height).parallel().forEach(row -> {
+            int start = row * width;
+            for (int index = start; index < start + width; index++) {
+                rgb[index] = color(field, index);
+            }
+        });
+    }
+
+    /**
+     * Линейно смешивает два цвета RGB по каналам.
+     */
+    private static int blend(int from, int to, float t)
+    {
+        int red = mix((from >> 16) & 0xff, (to >> 16) & 0xff, t);
+        int green = mix((from >> 8) & 0xff, (to >> 8) & 0xff, t);
+        int blue = mix(from & 0xff, to & 0xff, t);
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    private static int mix(int from, int to, float t)
+    {
+        return from + Math.round((to - from) * t);
+    }
+}
@@ -0,0 +1,219 @@
+package fractal;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Сглаживание готового кадра дополнительными образцами только там, где
+ * они нужны. Пиксель считается краевым, если его цвет отличается от
+ * цвета одного из восьми соседей больше чем на порог по какому-либо
+ * каналу или если один из них принадлежит множеству, а другой нет.
+ * Краевой пиксель делится на сетку 2 x 2 образцов, и, пока цвета
+ * образцов расходятся больше порога, сетка удваивается до maxGrid x
+ * maxGrid. Сетки вложены: образец (i, j) сетки k совпадает с образцом
+ * (2i, 2j) сетки 2k, а образец (0, 0) - с самим пикселем кадра, так что
+ * уже посчитанные образцы не пересчитываются. Цвет пикселя - среднее
+ * образцов. Ровные области остаются с одним образцом на пиксель.
+ */
+final class EdgeSupersampler
+{
+    /** Порог различия цветов по каналу, из 255. **/
+    static final int THRESHOLD = 24;
+
+    /** Наибольшая сетка образцов по умолчанию. **/
+    static final int DEFAULT_GRID = 4;
+
+    private final RenderJob job;
+    private final ColorMap colors;
+    private final int maxGrid;
+    private final int threshold;
+
+    private final double xMin;
+    private final double xMax;
+    private final double yMin;
+    private final double yMax;
+
+    /**
+     * Сглаживание кадра job по таблице цветов colors с сеткой до maxGrid
+     * (степень двойки) и порогом threshold; отрицательный порог делает
+     * краевыми все пиксели, то есть дает полное сглаживание maxGrid x maxGrid.
+     */
+    EdgeSupersampler(RenderJob job, ColorMap colors, int maxGrid,
+        int threshold)
+    {
+        if (maxGrid < 2 || Integer.bitCount(maxGrid) != 1) {
+            throw new IllegalArgumentException("grid " + maxGrid);
+        }
+        this.job = job;
+        this.colors = colors;
+        this.maxGrid = maxGrid;
+        this.threshold = threshold;
+        Viewport viewport = job.viewport;
+        this.xMin = viewport.x;
+        this.xMax = viewport.x + viewport.width;
+        this.yMin = viewport.y;
+        this.yMax = viewport.y + viewport.height;
+    }
+
+    /**
+     * Раскрашивает плитку, сглаживая краевые пиксели. Возвращает число
+     * посчитанных дополнительных образцов или -1, если проход прерван
+     * (cancelled - признак прерывания).
+     */
+    long computeTile(Tile tile, BooleanSupplier cancelled)
+    {
+        IterationField field = job.field;
+        int size = job.size;
+        int[] samples = new int[maxGrid * maxGrid];
+        int[] iterations = new int[maxGrid];
+        float[] fractions = new float[maxGrid];
+        long extra = 0;
+        int index = 0;
+        for (int row = tile.y; row < tile.y + tile.height; row++) {
+            if (cancelled.getAsBoolean()) {
+                return -1;
+            }
+            for (int col = tile.x; col < tile.x + tile.width; col++) {
+                int pixel = row * size + col;
+                int base = colors.color(field, pixel);
+                if (!isEdge(field, col, row, base)) {
+                    tile.rgb[index++] = base;
+                    continue;
+                }
+                samples[0] = base;
+                int grid = 1;
+                do {
+                    extra += refine(col, row, grid, samples, iterations,
+                        fractions);
+                    grid *= 2;
+                } while (grid < maxGrid && spread(samples, grid) > threshold);
+                tile.rgb[index++] = average(samples, grid);
+            }
+        }
+        return extra;
+    }
+
+    /**
+     * Краевой ли пиксель (col, row) с цветом base: сравнивается с
+     * соседями внутри кадра.
+     */
+    private boolean isEdge(IterationField field, int col, int row, int base)
+    {
+        if (threshold < 0) {
+            return true;
+        }
+        int size = job.size;
+        boolean inside = field.iterations[row * size + col] < 0;
+        for (int y = Math.max(0, row - 1); y <= Math.min(size - 1, row + 1); y++) {
+            for (int x = Math.max(0, col - 1); x <= Math.min(size - 1, col + 1); x++) {
+                int neighbour = y * size + x;
+                if ((field.iterations[neighbour] < 0) != inside
+                    || difference(base, colors.color(field, neighbour)) > threshold) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Переходит от сетки grid к сетке 2 grid: считает новые образцы
+     * пикселя и записывает их цвета в samples, где образцы лежат на
+     * местах сетки maxGrid. Возвращает число посчитанных образцов.
+     */
+    private int refine(int col, int row, int grid, int[] samples,
+        int[] iterations, float[] fractions)
+    {
+        int next = 2 * grid;
+        int stride = maxGrid / next;
+        int superSize = next * job.size;
+        int count = 0;
+        for (int j = 0; j < next; j++) {
+            double y = FractalGenerator.getCoord(yMin, yMax, superSize,
+                next * row + j);
+            int slot = j * stride * maxGrid;
+
+            /** в нечетных рядах все образцы новые, считаем одним вызовом. */
+            if (j % 2 == 1) {
+                computeRow(superSize, next * col, y, iterations, fractions,
+                    next);
+                for (int i = 0; i < next; i++) {
+                    samples[slot + i * stride] = colors.color(iterations[i],
+                        fractions[i]);
+                }
+                count += next;
+                continue;
+            }
+            for (int i = 1; i < next; i += 2) {
+                computeRow(superSize, next * col + i, y, iterations,
+                    fractions, 1);
+                samples[slot + i * stride] = colors.color(iterations[0],
+                    fractions[0]);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Считает count образцов ряда сверхсетки. Векторное ядро computeRow
+     * на таких коротких отрезках медленнее скалярного, поэтому всегда
+     * вызывается computeRowSmooth; дробные части без плавной раскраски
+     * таблица цветов не использует.
+     */
+    private void computeRow(int superSize, int from, double y,
+        int[] iterations, float[] fractions, int count)
+    {
+        job.fractal.computeRowSmooth(xMin, xMax, superSize, from, y,
+            iterations, fractions, 0, count, job.field.maxIterations, null);
+    }
+
+    /** Наибольший по каналам разброс цветов образцов сетки grid. **/
+    private int spread(int[] samples, int grid)
+    {
+        int stride = maxGrid / grid;
+        int spread = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int min = 255;
+            int max = 0;
+            for (int j = 0; j < grid; j++) {
+                for (int i = 0; i < grid; i++) {
+                    int channel = (samples[(j * maxGrid + i) * stride] >> shift)
+                        & 0xff;
+                    min = Math.min(min, channel);
+                    max = Math.max(max, channel);
+                }
+            }
+            spread = Math.max(spread, max - min);
+        }
+        return spread;
+    }
+
+    /** Средний цвет образцов сетки grid. **/
+    private int average(int[] samples, int grid)
+    {
+        int stride = maxGrid / grid;
+        int red = 0;
+        int green = 0;
+        int blue = 0;
+        for (int j = 0; j < grid; j++) {
+            for (int i = 0; i < grid; i++) {
+                int color = samples[(j * maxGrid + i) * stride];
+                red += (color >> 16) & 0xff;
+                green += (color >> 8) & 0xff;
+                blue += color & 0xff;
+            }
+        }
+        int n = grid * grid;
+        return ((red + n / 2) / n) << 16 | ((green + n / 2) / n) << 8
+            | (blue + n / 2) / n;
+    }
+
+    /** Наибольшая по каналам разность двух цветов. **/
+    static int difference(int a, int b)
+    {
+        int red = Math.abs(((a >> 16) & 0xff) - ((b >> 16) & 0xff));
+        int green = Math.abs(((a >> 8) & 0xff) - ((b >> 8) & 0xff));
+        int blue = Math.abs((a & 0xff) - (b & 0xff));
+        return Math.max(red, Math.max(green, blue));
+    }
+}
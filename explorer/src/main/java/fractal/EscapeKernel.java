@@ -0,0 +1,69 @@
+package fractal;
+
+/**
+ * Необязательное ускоренное ядро, которое считает число итераций сразу
+ * для целого отрезка ряда пикселей. Генераторы Mandelbrot, Tricorn и
+ * BurningShip используют его в computeRow, если оно доступно, а иначе
+ * считают скалярно. Результаты ядра должны совпадать со скалярными
+ * бит в бит.
+ */
+public interface EscapeKernel
+{
+    /** Формулы, которые умеет считать ядро. **/
+    int MANDELBROT = 0;
+    int TRICORN = 1;
+    int BURNING_SHIP = 2;
+
+    /**
+     * Считает число итераций для count пикселей ряда, начиная с пикселя
+     * from, и записывает их в iterations начиная с offset. Координаты
+     * пикселей считаются так же, как в FractalGenerator.getCoord, точки,
+     * не покинувшие область за maxIterations итераций, получают -1.
+     * Если orbits не null, для таких точек в него записывается последнее
+     * значение z, как в FractalGenerator.computeRow.
+     */
+    void computeRow(int formula, int maxIterations, double xMin, double xMax,
+        int size, int from, double y, int[] iterations, int offset, int count,
+        double[] orbits);
+
+    /**
+     * Возвращает векторное ядро на Java Vector API или null, если модуль
+     * jdk.incubator.vector не подключен (--add-modules jdk.incubator.vector)
+     * или ядро отключено свойством -Dfractal.vector=false.
+     */
+    static EscapeKernel vector()
+    {
+        return VectorHolder.KERNEL;
+    }
+
+    /**
+     * Ленивая загрузка векторного ядра: класс VectorEscapeKernel
+     * загружается через отражение, только если модуль присутствует.
+     */
+    final class VectorHolder
+    {
+        static final EscapeKernel KERNEL = load();
+
+        private VectorHolder()
+        {
+        }
+
+        private static EscapeKernel load()
+        {
+            if (!Boolean.parseBoolean(System.getProperty("fractal.vector", "true"))) {
+                return null;
+            }
+            if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                return null;
+            }
+            try {
+                Class<?> type = Class.forName("fractal.VectorEscapeKernel");
+                EscapeKernel kernel = (EscapeKernel) type.getDeclaredConstructor().newInstance();
+                return kernel;
+            }
+            catch (ReflectiveOperationException | LinkageError e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,528 @@
+package fractal;
+
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Координатор фермы рендеринга: как PosterRenderer, но полосы изображения
+ * считают рабочие процессы FarmWorker, подключенные по TCP (протокол
+ * описан в FarmProtocol). Рабочие могут работать на других машинах или
+ * в нескольких JVM на одной.
+ * <p>
+ * Нагрузка распределяется динамически: каждому рабочему выдается
+ * TILES_PER_THREAD плиток на поток, и за каждую полученную плитку он
+ * получает следующую, поэтому быстрый рабочий считает больше. Если
+ * рабочий отключился или замолчал дольше тайм-аута, его незавершенные
+ * плитки возвращаются в очередь и уходят первыми другим рабочим.
+ * Плитка, которую рабочий не смог посчитать (FAILED), возвращается
+ * в очередь сразу; после MAX_FAILURES таких отказов рендеринг прерывается.
+ * Готовые полосы раскрашиваются и по порядку пишутся в PNG; вперед
+ * записанной выдается не больше MAX_AHEAD полос, так что память, как
+ * и у PosterRenderer, зависит от ширины изображения.
+ * <p>
+ * Запуск:
+ * <pre>
+ * java FarmCoordinator генератор ширина высота файл.png [параметры]
+ *   генератор      mandelbrot, tricorn, burningship или имя класса
+ *   --range=, --palette=, --smooth, --compression=   как у PosterRenderer
+ *   --port=N          порт для рабочих, по умолчанию DEFAULT_PORT;
+ *                     0 - любой свободный
+ *   --local=N         запустить N рабочих процессов на этой машине
+ *   --timeout=S       сколько секунд ждать плитку от рабочего, по умолчанию 120
+ * </pre>
+ * Остальные рабочие подключаются командой java FarmWorker хост:порт.
+ */
+public class FarmCoordinator
+{
+    public static final int DEFAULT_PORT = 7411;
+
+    /** Сколько плиток на поток рабочего держать в работе. **/
+    private static final int TILES_PER_THREAD = 2;
+
+    /** На сколько полос выдача может опережать запись. **/
+    private static final int MAX_AHEAD = 256;
+
+    /** Сколько раз полосу можно вернуть после FAILED, прежде чем сдаться. **/
+    private static final int MAX_FAILURES = 3;
+
+    private final FractalGenerator fractal;
+    private final Rectangle2D.Double range;
+    private final int width;
+    private final int height;
+    private final ColorMap colors;
+    private final int bands;
+
+    private int timeoutMillis = 120_000;
+    private List<Process> localWorkers = new ArrayList<Process>();
+
+    /** Состояние очереди; все поля ниже защищены this. **/
+    private final ArrayDeque<Integer> retry = new ArrayDeque<Integer>();
+    private final Map<Integer, Band> completed = new HashMap<Integer, Band>();
+    private int nextBand;
+    private int written;
+    private boolean finished;
+    private int liveWorkers;
+    private int connectedWorkers;
+    private int resubmitted;
+    private final Map<Integer, Integer> failures = new HashMap<Integer, Integer>();
+    private String failure;
+
+    /** Числа итераций готовой полосы. **/
+    private static final class Band
+    {
+        final int[] iterations;
+        final float[] fractions;
+
+        Band(int[] iterations, float[] fractions)
+        {
+            this.iterations = iterations;
+            this.fractions = fractions;
+        }
+    }
+
+    public FarmCoordinator(FractalGenerator fractal, Rectangle2D.Double range,
+        int width, int height, ColorMap colors)
+    {
+        this.fractal = fractal;
+        this.range = range;
+        this.width = width;
+        this.height = height;
+        this.colors = colors;
+        this.bands = (height + PosterRenderer.BAND_HEIGHT - 1)
+            / PosterRenderer.BAND_HEIGHT;
+    }
+
+    /**
+     * Сколько ждать результата от рабочего, у которого есть плитки в
+     * работе, прежде чем считать его пропавшим.
+     */
+    public void setTimeout(int millis)
+    {
+        timeoutMillis = millis;
+    }
+
+    /**
+     * Запускает count рабочих процессов на этой машине с тем же java и
+     * classpath; они подключатся к порту port петлевого интерфейса.
+     */
+    public void launchLocalWorkers(int count, int port) throws IOException
+    {
+        String java = ProcessHandle.current().info().command().orElse(
+            System.getProperty("java.home") + File.separator + "bin"
+            + File.separator + "java");
+        int threads = Math.max(1, RenderEngine.defaultParallelism() / count);
+        for (int i = 0; i < count; i++) {
+            List<String> command = new ArrayList<String>();
+            command.add(java);
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector")
+                .isPresent()) {
+                command.add("--add-modules");
+                command.add("jdk.incubator.vector");
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(FarmWorker.class.getName());
+            command.add("127.0.0.1:" + port);
+            command.add(Integer.toString(threads));
+            localWorkers.add(new ProcessBuilder(command).inheritIO().start());
+        }
+    }
+
+    /**
+     * Принимает рабочих на server, раздает им плитки и пишет собранное
+     * изображение в out как PNG. Возвращает, когда изображение записано.
+     */
+    public void render(ServerSocket server, OutputStream out, int compression)
+        throws IOException, InterruptedException
+    {
+        FarmProtocol.Job job = new FarmProtocol.Job(fractal.getClass()
+            .getName(), colors.maxIterations, colors.smooth, range, width,
+            height);
+        List<Thread> links = new ArrayList<Thread>();
+        Thread acceptor = new Thread(() -> accept(server, job, links),
+            "farm-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        try (PngStreamWriter png = new PngStreamWriter(out, width, height,
+            compression)) {
+            int[] rgb = new int[width];
+            for (int band = 0; band < bands; band++) {
+                Band done = awaitBand(band);
+                int first = band * PosterRenderer.BAND_HEIGHT;
+                int rows = Math.min(PosterRenderer.BAND_HEIGHT, height - first);
+                for (int i = 0; i < rows; i++) {
+                    int offset = i * width;
+                    for (int col = 0; col < width; col++) {
+                        rgb[col] = colors.color(done.iterations[offset + col],
+                            done.fractions != null
+                            ? done.fractions[offset + col] : 0f);
+                    }
+                    png.writeRow(rgb, 0);
+                }
+            }
+        }
+        finally {
+            synchronized (this) {
+                finished = true;
+                notifyAll();
+            }
+            server.close();
+            synchronized (links) {
+                for (Thread link : links) {
+                    link.join(1000);
+                }
+            }
+            for (Process process : localWorkers) {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroy();
+                }
+            }
+        }
+    }
+
+    /** Сколько рабочих подключалось за время рендеринга. **/
+    public synchronized int getConnectedWorkers()
+    {
+        return connectedWorkers;
+    }
+
+    /**
+     * Сколько плиток пришлось пересчитать из-за пропавших рабочих или
+     * отказов FAILED.
+     */
+    public synchronized int getResubmitted()
+    {
+        return resubmitted;
+    }
+
+    private void accept(ServerSocket server, FarmProtocol.Job job,
+        List<Thread> links)
+    {
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                Thread link = new Thread(() -> serve(socket, job),
+                    "farm-link-" + socket.getRemoteSocketAddress());
+                link.setDaemon(true);
+                synchronized (links) {
+                    links.add(link);
+                }
+                link.start();
+            }
+        }
+        catch (IOException e) {
+            /** сокет закрыт в конце render. */
+        }
+    }
+
+    /**
+     * Обслуживает одного рабочего: держит у него окно плиток и принимает
+     * результаты. При любой ошибке соединения его плитки возвращаются
+     * в очередь.
+     */
+    private void serve(Socket socket, FarmProtocol.Job job)
+    {
+        String name = socket.getRemoteSocketAddress().toString();
+        LinkedHashSet<Integer> inFlight = new LinkedHashSet<Integer>();
+        boolean counted = false;
+        int tiles = 0;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMillis);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+
+            if (in.readInt() != FarmProtocol.MAGIC) {
+                throw new IOException("не рабочий фермы");
+            }
+            if (in.readShort() != FarmProtocol.VERSION) {
+                throw new IOException("другая версия протокола");
+            }
+            int window = Math.max(1, in.readInt()) * TILES_PER_THREAD;
+            synchronized (this) {
+                liveWorkers++;
+                connectedWorkers++;
+                counted = true;
+            }
+            job.write(out);
+
+            while (true) {
+                while (inFlight.size() < window) {
+                    Integer band = takeBand(inFlight.isEmpty());
+                    if (band == null) {
+                        break;
+                    }
+                    int first = band * PosterRenderer.BAND_HEIGHT;
+                    FarmProtocol.writeTile(out, band, 0, first, width,
+                        Math.min(PosterRenderer.BAND_HEIGHT, height - first));
+                    inFlight.add(band);
+                }
+                if (inFlight.isEmpty()) {
+                    out.writeByte(FarmProtocol.BYE);
+                    out.flush();
+                    break;
+                }
+                out.flush();
+
+                byte type = in.readByte();
+                if (type == FarmProtocol.ERROR) {
+                    throw new IOException(in.readUTF());
+                }
+                if (type != FarmProtocol.RESULT && type != FarmProtocol.FAILED) {
+                    throw new IOException("неизвестное сообщение " + type);
+                }
+                int id = in.readInt();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                if (!inFlight.remove(id)) {
+                    throw new IOException("непрошенная плитка " + id);
+                }
+                if (type == FarmProtocol.FAILED) {
+                    failed(id, name, new String(data, StandardCharsets.UTF_8));
+                    continue;
+                }
+                int count = Math.min(PosterRenderer.BAND_HEIGHT,
+                    height - id * PosterRenderer.BAND_HEIGHT) * width;
+                int[] iterations = new int[count];
+                float[] fractions = job.smooth ? new float[count] : null;
+                FarmProtocol.decode(data, iterations, fractions, count);
+                complete(id, new Band(iterations, fractions));
+                tiles++;
+            }
+        }
+        catch (IOException e) {
+            if (!(e instanceof SocketException && isFinished())) {
+                System.err.println("рабочий " + name + " отключен: " + e);
+            }
+        }
+        finally {
+            synchronized (this) {
+                if (counted) {
+                    liveWorkers--;
+                }
+                for (Integer band : inFlight) {
+                    if (band >= written && !completed.containsKey(band)) {
+                        retry.add(band);
+                        resubmitted++;
+                    }
+                }
+                notifyAll();
+            }
+        }
+        System.out.println("рабочий " + name + ": плиток " + tiles);
+    }
+
+    /**
+     * Следующая полоса для рабочего: сначала возвращенные, затем новые
+     * в пределах MAX_AHEAD от записанной. Если полос нет и block истинно,
+     * ждет их; возвращает null, когда изображение записано или (при
+     * block ложном) выдать сейчас нечего.
+     */
+    private synchronized Integer takeBand(boolean block)
+        throws IOException
+    {
+        try {
+            while (!finished) {
+                if (!retry.isEmpty()) {
+                    return retry.poll();
+                }
+                if (nextBand < bands && nextBand < written + MAX_AHEAD) {
+                    return nextBand++;
+                }
+                if (!block) {
+                    return null;
+                }
+                wait();
+            }
+            return null;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("прервано", e);
+        }
+    }
+
+    /**
+     * Возвращает в очередь полосу, которую рабочий не смог посчитать,
+     * или, если она отказала MAX_FAILURES раз, прерывает рендеринг.
+     */
+    private synchronized void failed(int id, String name, String message)
+    {
+        System.err.println("рабочий " + name + " не посчитал полосу " + id
+            + ": " + message);
+        int count = failures.merge(id, 1, Integer::sum);
+        if (count >= MAX_FAILURES) {
+            failure = "полоса " + id + " не посчитана " + count + " раз: "
+                + message;
+        }
+        else if (id >= written && !completed.containsKey(id)) {
+            retry.add(id);
+            resubmitted++;
+        }
+        notifyAll();
+    }
+
+    private synchronized void complete(int id, Band band)
+    {
+        /** повтор уже полученной полосы просто отбрасывается. */
+        if (id >= written && !completed.containsKey(id)) {
+            completed.put(id, band);
+            notifyAll();
+        }
+    }
+
+    private synchronized boolean isFinished()
+    {
+        return finished;
+    }
+
+    /**
+     * Ждет полосу с номером band, следующую для записи, и забирает ее.
+     * Если все рабочие отключились, а запущенные локально процессы
+     * завершились, ждать больше некого.
+     */
+    private synchronized Band awaitBand(int band)
+        throws IOException, InterruptedException
+    {
+        while (!completed.containsKey(band)) {
+            if (failure != null) {
+                throw new IOException(failure);
+            }
+            if (liveWorkers == 0 && !localWorkers.isEmpty()
+                && localWorkers.stream().noneMatch(Process::isAlive)) {
+                throw new IOException("все рабочие процессы завершились");
+            }
+            wait(1000);
+        }
+        written = band + 1;
+        notifyAll();
+        return completed.remove(band);
+    }
+
+    /**
+     * Генератор по имени из командной строки или по имени класса.
+     */
+    private static FractalGenerator generator(String name)
+        throws ReflectiveOperationException
+    {
+        if (name.indexOf('.') < 0) {
+            return PosterRenderer.generator(name);
+        }
+        return Class.forName(name).asSubclass(FractalGenerator.class)
+            .getDeclaredConstructor().newInstance();
+    }
+
+    private static void usage()
+    {
+        System.err.println("использование: java FarmCoordinator"
+            + " mandelbrot|tricorn|burningship|класс ширина высота файл.png"
+            + " [--range=x,y,w,h] [--palette=HUE|FIRE|GRAY] [--smooth]"
+            + " [--compression=0..9] [--port=N] [--local=N] [--timeout=S]");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 4) {
+            usage();
+        }
+        FractalGenerator fractal = generator(args[0]);
+        int width = Integer.parseInt(args[1]);
+        int height = Integer.parseInt(args[2]);
+        String file = args[3];
+
+        Rectangle2D.Double range = new Rectangle2D.Double();
+        fractal.getInitialRange(range);
+        boolean rangeGiven = false;
+        Palette palette = StandardPalette.HUE;
+        boolean smooth = false;
+        int compression = 1;
+        int port = DEFAULT_PORT;
+        int local = 0;
+        int timeout = 120;
+        for (int i = 4; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--range=")) {
+                String[] parts = arg.substring(8).split(",");
+                if (parts.length != 4) {
+                    usage();
+                }
+                range.setRect(Double.parseDouble(parts[0]),
+                    Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                    Double.parseDouble(parts[3]));
+                rangeGiven = true;
+            }
+            else if (arg.startsWith("--palette=")) {
+                palette = StandardPalette.valueOf(arg.substring(10).toUpperCase());
+            }
+            else if (arg.equals("--smooth")) {
+                smooth = true;
+            }
+            else if (arg.startsWith("--compression=")) {
+                compression = Integer.parseInt(arg.substring(14));
+            }
+            else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring(7));
+            }
+            else if (arg.startsWith("--local=")) {
+                local = Integer.parseInt(arg.substring(8));
+            }
+            else if (arg.startsWith("--timeout=")) {
+                timeout = Integer.parseInt(arg.substring(10));
+            }
+            else {
+                usage();
+            }
+        }
+        if (!rangeGiven) {
+            PosterRenderer.fitAspect(range, width, height);
+        }
+
+        ColorMap colors = new ColorMap(palette, fractal.getMaxIterations(),
+            smooth);
+        FarmCoordinator coordinator = new FarmCoordinator(fractal, range,
+            width, height, colors);
+        coordinator.setTimeout(timeout * 1000);
+
+        ServerSocket server = new ServerSocket(port);
+        System.out.println("ожидание рабочих на порту "
+            + server.getLocalPort());
+        if (local > 0) {
+            coordinator.launchLocalWorkers(local, server.getLocalPort());
+        }
+
+        long start = System.nanoTime();
+        try (OutputStream out = new BufferedOutputStream(
+            new FileOutputStream(file), 1 << 16)) {
+            coordinator.render(server, out, compression);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double megapixels = (double) width * height / 1e6;
+        System.out.printf("%s: %dx%d, %.1f Мпикс за %.2f с, %.2f Мпикс/с,"
+            + " рабочих %d, пересчитано плиток %d%n", file, width, height,
+            megapixels, seconds, megapixels / seconds,
+            coordinator.getConnectedWorkers(), coordinator.getResubmitted());
+    }
+}
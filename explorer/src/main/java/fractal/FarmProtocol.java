@@ -0,0 +1,176 @@
+package fractal;
+
+import java.awt.geom.Rectangle2D;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Двоичный протокол между FarmCoordinator и FarmWorker поверх TCP.
+ * Все числа передаются в порядке big-endian, как в DataOutputStream.
+ * <pre>
+ * рабочий -> координатор:
+ *   HELLO   int MAGIC, short VERSION, int потоков
+ *   RESULT  byte, int номер, int длина, длина байт данных плитки
+ *   ERROR   byte, UTF сообщение
+ *   FAILED  byte, int номер, int длина, длина байт сообщения в UTF-8 -
+ *           плитку посчитать не удалось
+ * координатор -> рабочий:
+ *   JOB     byte, UTF класс генератора, int предел итераций, boolean
+ *           плавно, double x, y, w, h области, int ширина, высота
+ *   TILE    byte, int номер, int x, y, w, h
+ *   BYE     byte
+ * </pre>
+ * Данные плитки - числа итераций по строкам, каждое как беззнаковое
+ * число переменной длины (7 бит на байт) значения n + 1, так что точка,
+ * не покинувшая область, занимает один байт; в плавном режиме за каждым
+ * числом покинувшей область точки следует float дробной части.
+ */
+final class FarmProtocol
+{
+    static final int MAGIC = 0x46524d31;
+    static final short VERSION = 2;
+
+    static final byte JOB = 1;
+    static final byte TILE = 2;
+    static final byte BYE = 3;
+    static final byte RESULT = 4;
+    static final byte ERROR = 5;
+    static final byte FAILED = 6;
+
+    private FarmProtocol()
+    {
+    }
+
+    /**
+     * Параметры изображения, общие для всех плиток.
+     */
+    static final class Job
+    {
+        final String generator;
+        final int maxIterations;
+        final boolean smooth;
+        final Rectangle2D.Double range;
+        final int width;
+        final int height;
+
+        Job(String generator, int maxIterations, boolean smooth,
+            Rectangle2D.Double range, int width, int height)
+        {
+            this.generator = generator;
+            this.maxIterations = maxIterations;
+            this.smooth = smooth;
+            this.range = range;
+            this.width = width;
+            this.height = height;
+        }
+
+        void write(DataOutputStream out) throws IOException
+        {
+            out.writeByte(JOB);
+            out.writeUTF(generator);
+            out.writeInt(maxIterations);
+            out.writeBoolean(smooth);
+            out.writeDouble(range.x);
+            out.writeDouble(range.y);
+            out.writeDouble(range.width);
+            out.writeDouble(range.height);
+            out.writeInt(width);
+            out.writeInt(height);
+        }
+
+        /** Читает задание после байта JOB. **/
+        static Job read(DataInputStream in) throws IOException
+        {
+            String generator = in.readUTF();
+            int maxIterations = in.readInt();
+            boolean smooth = in.readBoolean();
+            Rectangle2D.Double range = new Rectangle2D.Double(in.readDouble(),
+                in.readDouble(), in.readDouble(), in.readDouble());
+            return new Job(generator, maxIterations, smooth, range,
+                in.readInt(), in.readInt());
+        }
+    }
+
+    static void writeTile(DataOutputStream out, int id, int x, int y,
+        int width, int height) throws IOException
+    {
+        out.writeByte(TILE);
+        out.writeInt(id);
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeInt(width);
+        out.writeInt(height);
+    }
+
+    /**
+     * Кодирует count чисел итераций (и дробных частей, если fractions
+     * не null) в данные плитки.
+     */
+    static byte[] encode(int[] iterations, float[] fractions, int count)
+    {
+        byte[] bytes = new byte[count * (fractions != null ? 9 : 5)];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            int value = iterations[i] + 1;
+            while ((value & ~0x7f) != 0) {
+                bytes[position++] = (byte) (value | 0x80);
+                value >>>= 7;
+            }
+            bytes[position++] = (byte) value;
+            if (fractions != null && iterations[i] >= 0) {
+                int bits = Float.floatToRawIntBits(fractions[i]);
+                bytes[position++] = (byte) (bits >>> 24);
+                bytes[position++] = (byte) (bits >>> 16);
+                bytes[position++] = (byte) (bits >>> 8);
+                bytes[position++] = (byte) bits;
+            }
+        }
+        return Arrays.copyOf(bytes, position);
+    }
+
+    /**
+     * Раскодирует данные плитки в count чисел итераций и, если fractions
+     * не null, дробных частей.
+     */
+    static void decode(byte[] bytes, int[] iterations, float[] fractions,
+        int count) throws IOException
+    {
+        int position = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[position++];
+                    value |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                iterations[i] = value - 1;
+                if (fractions == null) {
+                    continue;
+                }
+                if (value > 0) {
+                    int bits = (bytes[position] & 0xff) << 24
+                        | (bytes[position + 1] & 0xff) << 16
+                        | (bytes[position + 2] & 0xff) << 8
+                        | (bytes[position + 3] & 0xff);
+                    position += 4;
+                    fractions[i] = Float.intBitsToFloat(bits);
+                }
+                else {
+                    fractions[i] = 0f;
+                }
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            throw new EOFException("данные плитки обрезаны");
+        }
+        if (position != bytes.length) {
+            throw new IOException("лишние байты в данных плитки");
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package fractal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Рабочий процесс фермы рендеринга. Подключается к FarmCoordinator,
+ * получает задание и плитки и возвращает числа итераций плиток; раскраска
+ * и сборка изображения остаются координатору. Плитки считаются в пуле
+ * потоков, поэтому координатор держит в работе у рабочего несколько плиток.
+ * <p>
+ * Запуск:
+ * <pre>
+ * java FarmWorker хост:порт [потоков]
+ * </pre>
+ * На многопроцессорной машине можно запустить по рабочему на узел NUMA,
+ * например через numactl --cpunodebind=N --membind=N.
+ */
+public class FarmWorker
+{
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final ExecutorService executor;
+    private final int threads;
+
+    private FractalGenerator fractal;
+    private FarmProtocol.Job job;
+
+    public FarmWorker(Socket socket, int threads) throws IOException
+    {
+        this.in = new DataInputStream(new BufferedInputStream(
+            socket.getInputStream(), 1 << 16));
+        this.out = new DataOutputStream(new BufferedOutputStream(
+            socket.getOutputStream(), 1 << 16));
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "farm-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Представляется координатору и обрабатывает его сообщения, пока он
+     * не пришлет BYE или не закроет соединение.
+     */
+    public void run() throws IOException
+    {
+        try {
+            out.writeInt(FarmProtocol.MAGIC);
+            out.writeShort(FarmProtocol.VERSION);
+            out.writeInt(threads);
+            out.flush();
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                }
+                catch (EOFException e) {
+                    return;
+                }
+                switch (type) {
+                    case FarmProtocol.JOB:
+                        job = FarmProtocol.Job.read(in);
+                        fractal = newGenerator(job.generator);
+                        if (fractal == null) {
+                            return;
+                        }
+                        break;
+                    case FarmProtocol.TILE:
+                        int id = in.readInt();
+                        int x = in.readInt();
+                        int y = in.readInt();
+                        int width = in.readInt();
+                        int height = in.readInt();
+                        if (job == null) {
+                            fail("плитка до задания");
+                            return;
+                        }
+                        executor.execute(() -> computeTile(id, x, y, width,
+                            height));
+                        break;
+                    case FarmProtocol.BYE:
+                        return;
+                    default:
+                        fail("неизвестное сообщение " + type);
+                        return;
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Создает генератор по имени класса конструктором без параметров;
+     * при ошибке сообщает координатору и возвращает null.
+     */
+    private FractalGenerator newGenerator(String name) throws IOException
+    {
+        try {
+            return Class.forName(name).asSubclass(FractalGenerator.class)
+                .getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | ClassCastException e) {
+            fail("нет генератора " + name + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Считает плитку построчно, как PosterRenderer, и отправляет результат.
+     * Если генератор бросил исключение, координатору уходит FAILED с
+     * номером плитки, чтобы он сразу отдал ее другому рабочему, а не ждал
+     * тайм-аута.
+     */
+    private void computeTile(int id, int x, int y, int width, int height)
+    {
+        FarmProtocol.Job job = this.job;
+        int[] iterations = new int[width * height];
+        float[] fractions = job.smooth ? new float[width * height] : null;
+        double xMin = job.range.x;
+        double xMax = job.range.x + job.range.width;
+        byte[] data;
+        try {
+            for (int row = 0; row < height; row++) {
+                double yCoord = FractalGenerator.getCoord(job.range.y,
+                    job.range.y + job.range.height, job.height, y + row);
+                int offset = row * width;
+                if (fractions != null) {
+                    fractal.computeRowSmooth(xMin, xMax, job.width, x, yCoord,
+                        iterations, fractions, offset, width, job.maxIterations,
+                        null);
+                }
+                else {
+                    fractal.computeRow(xMin, xMax, job.width, x, yCoord,
+                        iterations, offset, width, job.maxIterations, null);
+                }
+            }
+            data = FarmProtocol.encode(iterations, fractions, width * height);
+        }
+        catch (RuntimeException e) {
+            System.err.println("плитка " + id + ": " + e);
+            send(FarmProtocol.FAILED, id, String.valueOf(e).getBytes(
+                StandardCharsets.UTF_8));
+            return;
+        }
+        send(FarmProtocol.RESULT, id, data);
+    }
+
+    /**
+     * Отправляет сообщение о плитке id: байт type, номер и данные с их
+     * длиной.
+     */
+    private void send(byte type, int id, byte[] data)
+    {
+        try {
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(id);
+                out.writeInt(data.length);
+                out.write(data);
+                out.flush();
+            }
+        }
+        catch (IOException e) {
+            /** координатор пропал; основной поток увидит это при чтении. */
+            executor.shutdownNow();
+        }
+    }
+
+    private void fail(String message) throws IOException
+    {
+        synchronized (out) {
+            out.writeByte(FarmProtocol.ERROR);
+            out.writeUTF(message);
+            out.flush();
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1 || args[0].lastIndexOf(':') < 0) {
+            System.err.println("использование: java FarmWorker хост:порт"
+                + " [потоков]");
+            System.exit(2);
+        }
+        int colon = args[0].lastIndexOf(':');
+        String host = args[0].substring(0, colon);
+        int port = Integer.parseInt(args[0].substring(colon + 1));
+        int threads = (args.length > 1) ? Integer.parseInt(args[1])
+            : RenderEngine.defaultParallelism();
+
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            new FarmWorker(socket, threads).run();
+        }
+    }
+}
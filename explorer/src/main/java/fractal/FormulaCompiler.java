@@ -0,0 +1,808 @@
+package fractal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.List;
+import java.util.Locale;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Генератор фрактала по формуле пользователя. Формула переводится в
+ * исходный текст подкласса FractalGenerator того же вида, что Mandelbrot
+ * или BurningShip: шаг итерации записан прямо в цикле escape() через
+ * вещественные и мнимые части, константы свернуты, степени развернуты в
+ * умножения. Текст компилируется в памяти и загружается скрытым классом,
+ * так что JIT обрабатывает его так же, как написанные вручную генераторы.
+ * <p>
+ * Язык формул:
+ * <pre>
+ * формула   = [ "julia" "(" выражение [ "," выражение ] ")" ":" ] выражение
+ * выражение = слагаемое { ("+" | "-") слагаемое }
+ * слагаемое = множитель { ["*" | "/"] множитель }
+ * множитель = ("-" | "+") множитель | атом [ "^" ["-"] целое ]
+ * атом      = число | "z" | "c" | "i" | функция "(" выражение ")"
+ *           | "(" выражение ")"
+ * функция   = conj | abs | sqr | re | im
+ * </pre>
+ * z - текущая точка орбиты, c - параметр, i - мнимая единица; знак
+ * умножения между множителями можно опускать (2z, 0.5i). abs берет модуль
+ * каждой части отдельно (abs(z)^2 + c - "Пылающий корабль"), conj -
+ * сопряжение, re и im - вещественная и мнимая части. Без префикса julia
+ * z0 = 0, а c - точка плоскости; с префиксом julia(a, b) c = a + bi, а z0 -
+ * точка плоскости. Точка покидает область, когда |z| > 2. Формулы без
+ * i, abs и im с вещественным параметром симметричны относительно
+ * вещественной оси, и RenderJob считает только половину таких кадров.
+ * <p>
+ * Для компиляции нужен JDK: в одной среде выполнения компилятора Java нет.
+ */
+public final class FormulaCompiler
+{
+    /** Имя создаваемого класса; скрытым классам уникальные имена не нужны. **/
+    private static final String CLASS_NAME = "fractal.Formula";
+
+    private static final String TEMPLATE = """
+        package fractal;
+
+        import java.awt.geom.Rectangle2D;
+
+        public final class Formula extends FractalGenerator
+        {
+            public void getInitialRange(Rectangle2D.Double range)
+            {
+                range.x = -2;
+                range.y = -2;
+                range.width = 4;
+                range.height = 4;
+            }
+
+            public int numIterations(double x, double y, int maxIterations)
+            {
+                return escape(x, y, $Z0, 0, maxIterations, null, null, 0);
+            }
+
+            @Override
+            public void computeRow(double xMin, double xMax, int size, int from,
+                double y, int[] iterations, int offset, int count,
+                int maxIterations, double[] orbits)
+            {
+                double xRange = xMax - xMin;
+                for (int i = 0; i < count; i++) {
+                    double x = xMin + (xRange * (double) (from + i) / (double) size);
+                    iterations[offset + i] = escape(x, y, $Z0, 0, maxIterations,
+                        null, orbits, offset + i);
+                }
+            }
+
+            @Override
+            public void computeRowSmooth(double xMin, double xMax, int size,
+                int from, double y, int[] iterations, float[] fractions,
+                int offset, int count, int maxIterations, double[] orbits)
+            {
+                double xRange = xMax - xMin;
+                for (int i = 0; i < count; i++) {
+                    double x = xMin + (xRange * (double) (from + i) / (double) size);
+                    iterations[offset + i] = escape(x, y, $Z0, 0, maxIterations,
+                        fractions, orbits, offset + i);
+                }
+            }
+
+            @Override
+            public int continueIterations(double x, double y, int start,
+                int maxIterations, double[] orbits, int index, float[] fractions)
+            {
+                double zreal = orbits[2 * index];
+                double zimaginary = orbits[2 * index + 1];
+                if (Double.isNaN(zreal)) {
+                    return escape(x, y, $Z0, 0, maxIterations, fractions, orbits,
+                        index);
+                }
+                return escape(x, y, zreal, zimaginary, start, maxIterations,
+                    fractions, orbits, index);
+            }
+
+            private static int escape(double x, double y, double zreal,
+                double zimaginary, int iteration, int maxIterations,
+                float[] fractions, double[] orbits, int index)
+            {
+                double savedReal = zreal;
+                double savedImaginary = zimaginary;
+                int nextSave = iteration + 1;
+                while (iteration < maxIterations
+                    && zreal * zreal + zimaginary * zimaginary < 4) {
+        $STEP
+                    iteration += 1;
+                    if (zreal == savedReal && zimaginary == savedImaginary) {
+                        iteration = maxIterations;
+                        break;
+                    }
+                    if (iteration == nextSave) {
+                        savedReal = zreal;
+                        savedImaginary = zimaginary;
+                        nextSave <<= 1;
+                    }
+                }
+                if (iteration == maxIterations) {
+                    if (orbits != null) {
+                        orbits[2 * index] = zreal;
+                        orbits[2 * index + 1] = zimaginary;
+                    }
+                    return -1;
+                }
+                if (fractions != null) {
+                    fractions[index] = smoothFraction(zreal, zimaginary);
+                }
+                return iteration;
+            }
+
+            @Override
+            public boolean isSymmetricAboutRealAxis()
+            {
+                return $SYMMETRIC;
+            }
+
+            public String toString()
+            {
+                return $NAME;
+            }
+        }
+        """;
+
+    private FormulaCompiler()
+    {
+    }
+
+    /**
+     * Компилирует формулу в генератор. Ошибка в формуле дает
+     * IllegalArgumentException с позицией ошибки, отсутствие компилятора
+     * Java - IllegalStateException.
+     */
+    public static FractalGenerator compile(String formula)
+    {
+        byte[] bytes = compileSource(toSource(formula));
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                .defineHiddenClass(bytes, true);
+            return (FractalGenerator) lookup.findConstructor(
+                lookup.lookupClass(), MethodType.methodType(void.class))
+                .invoke();
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException("не удалось загрузить формулу", e);
+        }
+    }
+
+    /**
+     * Исходный текст генератора для формулы; отдельно от компиляции,
+     * чтобы ошибки разбора не требовали JDK.
+     */
+    static String toSource(String formula)
+    {
+        Parser parser = new Parser(formula);
+        String step = parser.parse();
+        return TEMPLATE.replace("$STEP", step)
+            .replace("$Z0", parser.julia ? "x, y" : "0, 0")
+            .replace("$SYMMETRIC", Boolean.toString(parser.symmetric))
+            .replace("$NAME", quote(formula.trim()));
+    }
+
+    /** Строковый литерал Java с текстом s. **/
+    private static String quote(String s)
+    {
+        StringBuilder literal = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                literal.append('\\').append(ch);
+            }
+            else if (ch < ' ' || ch > '~') {
+                literal.append(String.format("\\u%04x", (int) ch));
+            }
+            else {
+                literal.append(ch);
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    /**
+     * Компилирует исходный текст класса Formula в памяти и возвращает
+     * байт-код. Путь классов компилятора - путь приложения и место, откуда
+     * загружен FractalGenerator, если это не одно и то же.
+     */
+    private static byte[] compileSource(String source)
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException(
+                "нет компилятора Java: формулы работают только под JDK");
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics =
+            new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(
+            diagnostics, Locale.ROOT, null);
+        ClassOutput output = new ClassOutput(standard);
+        JavaFileObject unit = new SimpleJavaFileObject(
+            URI.create("string:///fractal/Formula.java"),
+            JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreErrors)
+            {
+                return source;
+            }
+        };
+        List<String> options = List.of("-classpath", classPath(), "-proc:none",
+            "-g:none", "-nowarn");
+        boolean compiled = compiler.getTask(null, output, diagnostics,
+            options, null, List.of(unit)).call();
+        if (!compiled || output.bytes == null) {
+            StringBuilder message = new StringBuilder(
+                "формула не скомпилировалась:");
+            for (Diagnostic<?> d : diagnostics.getDiagnostics()) {
+                message.append('\n').append(d.getMessage(Locale.ROOT));
+            }
+            throw new IllegalStateException(message.toString());
+        }
+        return output.bytes.toByteArray();
+    }
+
+    private static String classPath()
+    {
+        String path = System.getProperty("java.class.path", "");
+        CodeSource code = FractalGenerator.class.getProtectionDomain()
+            .getCodeSource();
+        if (code != null) {
+            try {
+                String own = Paths.get(code.getLocation().toURI()).toString();
+                path = path.isEmpty() ? own : own + File.pathSeparator + path;
+            }
+            catch (URISyntaxException | IllegalArgumentException e) {
+                /** остается путь приложения. */
+            }
+        }
+        return path;
+    }
+
+    /** Файловый менеджер, который забирает байт-код Formula в память. **/
+    private static final class ClassOutput
+        extends ForwardingJavaFileManager<JavaFileManager>
+    {
+        private ByteArrayOutputStream bytes;
+
+        ClassOutput(JavaFileManager manager)
+        {
+            super(manager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location,
+            String className, JavaFileObject.Kind kind, FileObject sibling)
+        {
+            if (!className.equals(CLASS_NAME)) {
+                throw new IllegalStateException("лишний класс " + className);
+            }
+            return new SimpleJavaFileObject(URI.create("mem:///"
+                + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream()
+                {
+                    bytes = new ByteArrayOutputStream(4096);
+                    return bytes;
+                }
+            };
+        }
+    }
+
+    /**
+     * Вещественное выражение на Java: имя переменной, литерал или
+     * выражение в скобках. Для констант известно значение, и операции над
+     * ними сворачиваются при разборе.
+     */
+    private static final class Real
+    {
+        final String code;
+        final boolean constant;
+        final double value;
+
+        private Real(String code, boolean constant, double value)
+        {
+            this.code = code;
+            this.constant = constant;
+            this.value = value;
+        }
+
+        static Real of(double value)
+        {
+            String code = Double.toString(value);
+            return new Real(value < 0 || code.startsWith("-")
+                ? "(" + code + ")" : code, true, value);
+        }
+
+        static Real of(String code)
+        {
+            return new Real(code, false, Double.NaN);
+        }
+
+        boolean is(double v)
+        {
+            return constant && value == v;
+        }
+
+        /**
+         * Умножение на точный ноль отбрасывается, хотя для бесконечных z
+         * это не совсем то же, что 0 * z; до такого z орбита не доходит,
+         * потому что покидает область раньше.
+         */
+        Real times(Real other)
+        {
+            if (constant && other.constant) {
+                return of(value * other.value);
+            }
+            if (is(0) || other.is(0)) {
+                return of(0.0);
+            }
+            if (is(1)) {
+                return other;
+            }
+            if (other.is(1)) {
+                return this;
+            }
+            if (is(-1)) {
+                return other.negate();
+            }
+            if (other.is(-1)) {
+                return negate();
+            }
+            return of("(" + code + " * " + other.code + ")");
+        }
+
+        Real plus(Real other)
+        {
+            if (constant && other.constant) {
+                return of(value + other.value);
+            }
+            if (is(0)) {
+                return other;
+            }
+            if (other.is(0)) {
+                return this;
+            }
+            return of("(" + code + " + " + other.code + ")");
+        }
+
+        Real minus(Real other)
+        {
+            if (constant && other.constant) {
+                return of(value - other.value);
+            }
+            if (other.is(0)) {
+                return this;
+            }
+            if (is(0)) {
+                return other.negate();
+            }
+            return of("(" + code + " - " + other.code + ")");
+        }
+
+        Real divide(Real other)
+        {
+            if (constant && other.constant) {
+                return of(value / other.value);
+            }
+            if (other.is(1)) {
+                return this;
+            }
+            return of("(" + code + " / " + other.code + ")");
+        }
+
+        Real negate()
+        {
+            return constant ? of(-value) : of("(-" + code + ")");
+        }
+
+        Real abs()
+        {
+            return constant ? of(Math.abs(value)) : of("Math.abs(" + code + ")");
+        }
+    }
+
+    /** Комплексное значение из двух вещественных выражений. **/
+    private static final class Complex
+    {
+        final Real re;
+        final Real im;
+
+        Complex(Real re, Real im)
+        {
+            this.re = re;
+            this.im = im;
+        }
+
+        boolean isConstant()
+        {
+            return re.constant && im.constant;
+        }
+    }
+
+    /**
+     * Разбор рекурсивным спуском. Код шага пишется сразу при разборе:
+     * каждый промежуточный комплексный результат сохраняется в локальных
+     * переменных, чтобы выражения не росли при возведении в степень.
+     */
+    private static final class Parser
+    {
+        /** Наибольшая степень; больше - почти наверняка опечатка. **/
+        private static final int MAX_POWER = 64;
+
+        private final String text;
+        private final StringBuilder code = new StringBuilder();
+        private int pos;
+        private int temps;
+        private boolean variables;
+
+        private final Complex z = new Complex(Real.of("zreal"), Real.of("zimaginary"));
+        private Complex c = new Complex(Real.of("x"), Real.of("y"));
+        boolean julia;
+
+        /**
+         * Симметрична ли формула относительно вещественной оси. Сложение,
+         * умножение, деление, степени, conj и re сохраняют сопряжение
+         * точно; i, abs и im, как и невещественный параметр julia, могут
+         * его нарушить.
+         */
+        boolean symmetric = true;
+
+        Parser(String text)
+        {
+            this.text = text;
+        }
+
+        /** Разбирает всю формулу и возвращает код шага итерации. **/
+        String parse()
+        {
+            skipSpace();
+            if (text.startsWith("julia", pos)) {
+                pos += "julia".length();
+                expect('(');
+                variables = false;
+                Complex seed = expression();
+                if (accept(',')) {
+                    Complex im = expression();
+                    seed = add(seed, multiply(im, new Complex(Real.of(0.0),
+                        Real.of(1.0))), false);
+                }
+                expect(')');
+                expect(':');
+                c = seed;
+                symmetric = seed.im.is(0);
+                julia = true;
+            }
+            variables = true;
+            Complex next = expression();
+            if (pos < text.length()) {
+                throw error("лишний текст");
+            }
+            if (next == null) {
+                throw error("пустая формула");
+            }
+            line("double zrealUpdated = " + next.re.code + ";");
+            line("double zimaginaryUpdated = " + next.im.code + ";");
+            line("zreal = zrealUpdated;");
+            line("zimaginary = zimaginaryUpdated;");
+            return code.toString();
+        }
+
+        private Complex expression()
+        {
+            Complex value = term();
+            while (true) {
+                if (accept('+')) {
+                    value = add(value, term(), false);
+                }
+                else if (accept('-')) {
+                    value = add(value, term(), true);
+                }
+                else {
+                    return value;
+                }
+            }
+        }
+
+        private Complex term()
+        {
+            Complex value = factor();
+            while (true) {
+                if (accept('*')) {
+                    value = multiply(value, factor());
+                }
+                else if (accept('/')) {
+                    value = divide(value, factor());
+                }
+                else if (startsAtom()) {
+                    value = multiply(value, factor());
+                }
+                else {
+                    return value;
+                }
+            }
+        }
+
+        private Complex factor()
+        {
+            if (accept('-')) {
+                Complex value = factor();
+                return new Complex(value.re.negate(), value.im.negate());
+            }
+            if (accept('+')) {
+                return factor();
+            }
+            Complex value = atom();
+            if (accept('^')) {
+                boolean negative = accept('-');
+                int start = pos;
+                while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                    pos++;
+                }
+                if (start == pos) {
+                    throw error("степень должна быть целым числом");
+                }
+                int power = Integer.parseInt(text.substring(start, pos));
+                if (power > MAX_POWER) {
+                    throw error("степень больше " + MAX_POWER);
+                }
+                skipSpace();
+                value = power(value, power);
+                if (negative) {
+                    value = divide(new Complex(Real.of(1.0), Real.of(0.0)),
+                        value);
+                }
+            }
+            return value;
+        }
+
+        private Complex atom()
+        {
+            if (pos >= text.length()) {
+                throw error("формула оборвалась");
+            }
+            char ch = text.charAt(pos);
+            if (accept('(')) {
+                Complex value = expression();
+                expect(')');
+                return value;
+            }
+            if (Character.isDigit(ch) || ch == '.') {
+                return number();
+            }
+            if (!Character.isLetter(ch)) {
+                throw error("неожиданный символ '" + ch + "'");
+            }
+            int start = pos;
+            while (pos < text.length()
+                && Character.isLetterOrDigit(text.charAt(pos))) {
+                pos++;
+            }
+            String name = text.substring(start, pos);
+            skipSpace();
+            switch (name) {
+                case "i":
+                    symmetric &= !variables;
+                    return new Complex(Real.of(0.0), Real.of(1.0));
+                case "z":
+                case "c":
+                    if (!variables) {
+                        pos = start;
+                        throw error("в параметре julia допустимы только числа");
+                    }
+                    return name.equals("z") ? z : c;
+                case "conj":
+                case "abs":
+                case "sqr":
+                case "re":
+                case "im":
+                    expect('(');
+                    Complex argument = expression();
+                    expect(')');
+                    return function(name, argument);
+                default:
+                    pos = start;
+                    throw error("неизвестное имя " + name);
+            }
+        }
+
+        private Complex function(String name, Complex a)
+        {
+            if (name.equals("abs") || name.equals("im")) {
+                symmetric = false;
+            }
+            switch (name) {
+                case "conj":
+                    return new Complex(a.re, a.im.negate());
+                case "abs":
+                    return bind(new Complex(a.re.abs(), a.im.abs()));
+                case "sqr":
+                    return power(a, 2);
+                case "re":
+                    return new Complex(a.re, Real.of(0.0));
+                default:
+                    return new Complex(a.im, Real.of(0.0));
+            }
+        }
+
+        /** Число; сразу за ним может стоять i (0.5i). **/
+        private Complex number()
+        {
+            int start = pos;
+            while (pos < text.length() && (Character.isDigit(text.charAt(pos))
+                || text.charAt(pos) == '.')) {
+                pos++;
+            }
+            if (pos < text.length() && (text.charAt(pos) == 'e'
+                || text.charAt(pos) == 'E')) {
+                int mark = pos++;
+                if (pos < text.length() && (text.charAt(pos) == '+'
+                    || text.charAt(pos) == '-')) {
+                    pos++;
+                }
+                if (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                    while (pos < text.length()
+                        && Character.isDigit(text.charAt(pos))) {
+                        pos++;
+                    }
+                }
+                else {
+                    pos = mark;
+                }
+            }
+            double value;
+            try {
+                value = Double.parseDouble(text.substring(start, pos));
+            }
+            catch (NumberFormatException e) {
+                pos = start;
+                throw error("неверное число");
+            }
+            skipSpace();
+            return new Complex(Real.of(value), Real.of(0.0));
+        }
+
+        private Complex add(Complex a, Complex b, boolean subtract)
+        {
+            if (subtract) {
+                return bind(new Complex(a.re.minus(b.re), a.im.minus(b.im)));
+            }
+            return bind(new Complex(a.re.plus(b.re), a.im.plus(b.im)));
+        }
+
+        private Complex multiply(Complex a, Complex b)
+        {
+            if (a == b) {
+                return square(a);
+            }
+            return bind(new Complex(a.re.times(b.re).minus(a.im.times(b.im)),
+                a.re.times(b.im).plus(a.im.times(b.re))));
+        }
+
+        /** Квадрат дешевле произведения: три умножения вместо четырех. **/
+        private Complex square(Complex a)
+        {
+            return bind(new Complex(a.re.times(a.re).minus(a.im.times(a.im)),
+                Real.of(2.0).times(a.re.times(a.im))));
+        }
+
+        private Complex divide(Complex a, Complex b)
+        {
+            if (b.im.is(0)) {
+                return bind(new Complex(a.re.divide(b.re), a.im.divide(b.re)));
+            }
+            Complex d = bind(new Complex(b.re.times(b.re).plus(b.im.times(b.im)),
+                Real.of(0.0)));
+            return bind(new Complex(
+                a.re.times(b.re).plus(a.im.times(b.im)).divide(d.re),
+                a.im.times(b.re).minus(a.re.times(b.im)).divide(d.re)));
+        }
+
+        /** Целая степень возведением в квадрат и умножением. **/
+        private Complex power(Complex a, int power)
+        {
+            Complex result = null;
+            Complex base = a;
+            while (power > 0) {
+                if ((power & 1) != 0) {
+                    result = (result == null) ? base : multiply(result, base);
+                }
+                power >>= 1;
+                if (power > 0) {
+                    base = square(base);
+                }
+            }
+            return (result == null)
+                ? new Complex(Real.of(1.0), Real.of(0.0)) : result;
+        }
+
+        /**
+         * Сохраняет составные части значения в новых переменных и
+         * возвращает значение из этих переменных.
+         */
+        private Complex bind(Complex value)
+        {
+            if (value.isConstant()) {
+                return value;
+            }
+            return new Complex(bind(value.re), bind(value.im));
+        }
+
+        private Real bind(Real value)
+        {
+            if (value.constant || !value.code.startsWith("(")
+                && !value.code.startsWith("Math.")) {
+                return value;
+            }
+            String name = "t" + temps++;
+            line("double " + name + " = " + value.code + ";");
+            return Real.of(name);
+        }
+
+        private void line(String s)
+        {
+            code.append("            ").append(s).append('\n');
+        }
+
+        private boolean startsAtom()
+        {
+            if (pos >= text.length()) {
+                return false;
+            }
+            char ch = text.charAt(pos);
+            return ch == '(' || Character.isLetterOrDigit(ch) || ch == '.';
+        }
+
+        private boolean accept(char ch)
+        {
+            if (pos < text.length() && text.charAt(pos) == ch) {
+                pos++;
+                skipSpace();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char ch)
+        {
+            if (!accept(ch)) {
+                throw error("ожидается '" + ch + "'");
+            }
+        }
+
+        private void skipSpace()
+        {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message)
+        {
+            return new IllegalArgumentException("позиция " + (pos + 1) + ": "
+                + message);
+        }
+    }
+}
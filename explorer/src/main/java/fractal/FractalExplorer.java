@@ -0,0 +1,906 @@
+package fractal;
+
+import java.awt.*;
+import javax.swing.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.event.*;
+import javax.swing.JFileChooser.*;
+import javax.swing.filechooser.*;
+import javax.imageio.ImageIO.*;
+import java.awt.image.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+  * Этот класс позволяет исследовать различные части фрактала с
+  * созданием и отображением графического интерфейса Swing и обработкой событий, вызванных различными
+  * взаимодействиями с пользователем.
+  */
+public class FractalExplorer
+{
+    /** Целочисленный размер дисплея - это ширина и высота дисплея в пикселях. **/
+    private int displaySize;
+    
+    /**
+      * Ссылка JImageDisplay для обновления отображения с помощью различных методов 
+      * после того как фрактал вычислен.
+     */
+    private JImageDisplay display;
+    
+    
+    private FractalGenerator fractal;
+    
+    private Rectangle2D.Double range;
+    
+    /**
+      * Текущая область, привязанная к решетке пикселей начального
+      * диапазона фрактала; range всегда равен ее диапазону.
+     */
+    private Viewport viewport;
+    
+    /**
+      * Конструктор, который принимает размер дисплея, сохраняет его и
+      * инициализирует объекты диапазона и фрактал-генератора.
+    **/
+    
+    /** Поля для кнопки сохранения, кнопки сброса и поля со списком для enableUI.  **/
+    private JButton saveButton;
+    private JButton resetButton;
+    private JComboBox<FractalGenerator> myComboBox;
+    private JButton formulaButton;
+    
+    /** Поле со списком режимов рендеринга и строка состояния. **/
+    private JComboBox<RenderMode> modeComboBox;
+    private JLabel statusLabel;
+    
+    /** Поле со списком палитр и флажок плавной раскраски. **/
+    private JComboBox<Palette> paletteComboBox;
+    private JCheckBox smoothCheckBox;
+    
+    /**
+      * Поле со списком пределов итераций ("авто" или фиксированный предел)
+      * и кнопка, которая поднимает предел готового кадра вдвое.
+     */
+    private JComboBox<Object> iterationComboBox;
+    private JButton moreButton;
+    
+    /** Флажок сбора метрик рендеринга и их показа поверх фрактала. **/
+    private JCheckBox hudCheckBox;
+    
+    /**
+      * Флажок сглаживания краев, последнее готовое задание, которое
+      * сглаживается, и строка состояния этого кадра без сведений о
+      * сглаживании.
+     */
+    private JCheckBox antialiasCheckBox;
+    private RenderJob lastJob;
+    private String frameStatus = " ";
+    
+    /**
+      * Задание, которое досчитывает полосы, открывшиеся при перетаскивании,
+      * или null. Следующее такое задание запускается, только когда это
+      * закончится, так что на медленных кадрах работа не сбрасывается на
+      * каждое движение мыши.
+     */
+    private RenderJob panJob;
+    
+    /**
+      * Поле итераций последнего кадра. По нему кадр перекрашивается
+      * при смене палитры без повторного вычисления фрактала.
+     */
+    private IterationField field;
+    
+    /**
+      * Метки последнего запроса кадра с автоматическим пределом и
+      * последнего перекрашивания. Предел и цвета считаются в пуле движка;
+      * результат, пришедший после более нового запроса, выбрасывается.
+     */
+    private Object pendingFrame;
+    private Object pendingRecolor;
+    
+    /**
+      * Таблица цветов поля field: с ней считается задание перетаскивания.
+      * После смены палитры ее заменяет таблица с тем же пределом.
+     */
+    private ColorMap colors;
+    
+    /** Элемент списка пределов итераций для автоматического выбора. **/
+    private static final String AUTO_ITERATIONS = "авто";
+    
+    /**
+     * Насколько пикселей курсор должен уйти от точки щелчка, чтобы
+     * фокус рендеринга снова следовал за ним.
+     */
+    private static final int FOCUS_SLOP = 8;
+    
+    /** Движок, который вычисляет плитки фрактала в пуле потоков. **/
+    private RenderEngine engine;
+    
+    
+    /**
+      * Конструктор, который принимает размер дисплея, сохраняет его и
+      * инициализирует объекты диапазона и фрактал-генератора.
+    **/
+    public FractalExplorer(int size) {
+        
+        displaySize = size;
+        
+        
+        fractal = new Mandelbrot();
+        range = new Rectangle2D.Double();
+        fractal.getInitialRange(range);
+        viewport = Viewport.lattice(range, displaySize);
+        display = new JImageDisplay(displaySize, displaySize);
+        engine = new RenderEngine();
+        engine.setKeepOrbits(true);
+        
+        /** Плитки прошлых запусков берутся из хранилища на диске. **/
+        engine.getCache().setStore(TileStore.openDefault());
+        
+    }
+    
+    /**
+      * Этот метод инициализирует графический интерфейс Swing с помощью JFrame, содержащего
+      * объект JImageDisplay и кнопка для сброса дисплея, кнопка
+      * для сохранения текущего фрактального изображения и JComboBox для выбора
+      * тип фрактала. JComboBox содержится в панели JPanel с меткой.
+    **/
+    
+    public void createAndShowGUI()
+    {
+        display.setLayout(new BorderLayout());
+        JFrame myFrame = new JFrame("Фракталы");
+        
+        /** 
+          * Добавляем объект отображения изображения в
+          * Позиция BorderLayout.CENTER.
+        **/
+        myFrame.add(display, BorderLayout.CENTER);
+        
+        /** создаем кнопку "восстановить". **/
+        this.resetButton = new JButton("восстановить");
+        /* добавить обработчик нажатия кнопки*/
+        this.resetButton.addActionListener(new ResetHandler());
+        
+        MouseHandler mouseHandler = new MouseHandler();
+        display.addMouseListener(mouseHandler);
+        display.addMouseMotionListener(mouseHandler);
+        
+        /** Установить операцию закрытия фрейма по умолчанию на "exit". **/
+        myFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        
+    
+        this.myComboBox = new JComboBox<FractalGenerator>();
+        
+        /** добавить все фракталы **/
+        this.myComboBox.addItem(new Mandelbrot());
+        this.myComboBox.addItem(new Tricorn());
+        this.myComboBox.addItem(new BurningShip());
+        
+        /* добавить обработчик нажатия кнопки*/
+        this.myComboBox.addActionListener(new ComboBoxHandler());
+        
+        /**
+          * Создайте новый объект JPanel, добавьте объект JLabel и JComboBox
+          * объект к нему, и добавить панель в рамку в нижней
+          * позиция в макете.
+        **/
+        JPanel myPanel = new JPanel();
+        JLabel myLabel = new JLabel("Фрактал:");
+        myPanel.add(myLabel);
+        myPanel.add(myComboBox);
+        
+        /** свой фрактал по формуле пользователя **/
+        this.formulaButton = new JButton("формула\u2026");
+        this.formulaButton.addActionListener(new FormulaHandler());
+        myPanel.add(formulaButton);
+        
+        /** список режимов рендеринга **/
+        this.modeComboBox = new JComboBox<RenderMode>(RenderMode.values());
+        this.modeComboBox.addActionListener(new ModeHandler());
+        myPanel.add(new JLabel("Режим:"));
+        myPanel.add(modeComboBox);
+        
+        /** палитры и плавная раскраска **/
+        this.paletteComboBox = new JComboBox<Palette>(StandardPalette.values());
+        this.paletteComboBox.addActionListener(new PaletteHandler());
+        this.smoothCheckBox = new JCheckBox("плавно");
+        this.smoothCheckBox.addActionListener(new PaletteHandler());
+        myPanel.add(new JLabel("Палитра:"));
+        myPanel.add(paletteComboBox);
+        myPanel.add(smoothCheckBox);
+        this.antialiasCheckBox = new JCheckBox("сглаживание");
+        this.antialiasCheckBox.addActionListener(new AntialiasHandler());
+        myPanel.add(antialiasCheckBox);
+        
+        /** предел итераций: автоматический или фиксированный **/
+        this.iterationComboBox = new JComboBox<Object>(new Object[] { AUTO_ITERATIONS,
+        500, 1000, 2000, 5000, 20000, 100000 });
+        this.iterationComboBox.addActionListener(new ModeHandler());
+        myPanel.add(new JLabel("Итерации:"));
+        myPanel.add(iterationComboBox);
+        this.hudCheckBox = new JCheckBox("HUD");
+        this.hudCheckBox.setSelected(engine.getMetrics().isEnabled());
+        this.hudCheckBox.addActionListener(new HudHandler());
+        myPanel.add(hudCheckBox);
+        myFrame.add(myPanel, BorderLayout.NORTH);
+        
+        /** создаем кнопку "сохранить". **/
+        this.saveButton = new JButton("сохранить");
+        JPanel myBottomPanel = new JPanel();
+        myBottomPanel.add(saveButton);
+        myBottomPanel.add(resetButton);
+        this.moreButton = new JButton("итераций \u00d72");
+        this.moreButton.addActionListener(new MoreIterationsHandler());
+        myBottomPanel.add(moreButton);
+        this.statusLabel = new JLabel(" ");
+        myBottomPanel.add(statusLabel);
+        myFrame.add(myBottomPanel, BorderLayout.SOUTH);
+        /* добавить обработчик нажатия кнопки*/
+        this.saveButton.addActionListener(new SaveHandler());
+        
+        
+       /**
+         * Разместить содержимое фрейма так, чтобы оно было видно, и
+         * запретить изменение размера окна.
+       **/
+        myFrame.pack();
+        myFrame.setVisible(true);
+        myFrame.setResizable(false);
+        
+    }
+    
+    /**
+     * Вспомогательный метод для отображения фрактала. Этот метод зацикливается
+     * на каждый пиксель на дисплее и вычисляет количество
+     * итераций для соответствующих координат во фрактале
+     * Область отображения. Если количество итераций равно -1, установить цвет пикселя
+     * в черный. В противном случае выберите значение, основанное на количестве итераций.
+     * Обновить дисплей цветом для каждого пикселя и перекрасите
+     * JImageDisplay, когда все пиксели нарисованы.
+     */
+     
+     
+    /** Bспомогательный метод для отображения фрактала. **/
+    private void drawFractal()
+    {
+       /** Вызвать enableUI (false), чтобы отключить все элементы
+         *  управления пользовательского интерфейса во время рисования.
+       **/
+        enableUI(false);
+        
+         /**
+          * Старый кадр отменяется сразу: пока готовятся предел итераций и
+          * таблица цветов нового, он не должен занимать пул и рисовать свои
+          * плитки поверх.
+         **/
+        engine.cancelCurrent();
+        Object frame = new Object();
+        pendingFrame = frame;
+        Object selected = iterationComboBox.getSelectedItem();
+        if (selected instanceof Integer) {
+            prepareFrame(frame, (Integer) selected);
+            return;
+        }
+        
+        /**
+          * В режиме "авто" предел подбирается по пробным образцам в пуле
+          * движка, а кадр запускается уже в потоке обработки событий.
+         **/
+        engine.chooseIterations(fractal, viewport, displaySize)
+        .whenComplete((limit, error) -> SwingUtilities.invokeLater(() -> {
+            if (pendingFrame != frame) {
+                return;
+            }
+            if (error != null) {
+                System.err.println("не удалось подобрать предел итераций: "
+                + error);
+                prepareFrame(frame, IterationBudget.MIN_ITERATIONS);
+                return;
+            }
+            prepareFrame(frame, limit);
+        }));
+    }
+    
+    /**
+      * Готовит таблицу цветов для предела maxIterations и, если кадр
+      * frame за это время не сменился другим, передает кадр движку: он
+      * делит его на плитки и возвращает готовые плитки в DisplayUpdater.
+     */
+    private void prepareFrame(Object frame, int maxIterations)
+    {
+        createColorMap(maxIterations)
+        .whenComplete((map, error) -> SwingUtilities.invokeLater(() -> {
+            if (pendingFrame != frame) {
+                return;
+            }
+            pendingFrame = null;
+            if (error != null) {
+                System.err.println("не удалось построить таблицу цветов: "
+                + error);
+                enableUI(true);
+                return;
+            }
+            colors = map;
+            RenderMode mode = (RenderMode) modeComboBox.getSelectedItem();
+            RenderJob job = engine.render(fractal, viewport, displaySize, mode,
+            map, field, new DisplayUpdater());
+            field = job.field;
+        }));
+    }
+    
+    /**
+      * Сдвигает область и изображение на dx пикселей вправо и dy вниз.
+      * Видимая часть кадра сдвигается сразу; открывшиеся полосы считает
+      * в фоне задание startPan, а уже известные пиксели поля переносятся
+      * в него по решетке без вычисления.
+     */
+    private void pan(int dx, int dy)
+    {
+        if (field == null || !viewport.isLattice()) {
+            return;
+        }
+        viewport = viewport.pan(dx, dy, displaySize);
+        range = viewport.toRange();
+        pendingFrame = null;
+        engine.cancelSupersample();
+        display.shiftImage(dx, dy);
+        if (panJob == null || panJob.isCancelled()) {
+            startPan();
+        }
+    }
+    
+    /**
+      * Запускает задание для текущей области с пределом итераций прежнего
+      * кадра: с тем же пределом переносятся все известные пиксели. Задание
+      * считается целиком, без прогрессивных проходов, чтобы перенесенная
+      * часть не показывалась крупными блоками; таблица цветов у него та
+      * же, что у прежнего кадра. Поле может принадлежать
+      * еще идущему заданию drawFractal; render отменяет его и переносит
+      * пиксели только после того, как его задачи остановятся.
+     */
+    private void startPan()
+    {
+        panJob = engine.render(fractal, viewport, displaySize, RenderMode.FULL,
+        colors, field, new PanUpdater(viewport));
+        field = panJob.field;
+    }
+    
+    /**
+      * Возвращает область к начальному диапазону текущего фрактала.
+     */
+    private void resetRange()
+    {
+        fractal.getInitialRange(range);
+        viewport = Viewport.lattice(range, displaySize);
+    }
+    
+    /**
+      * Таблица цветов по выбранной палитре и флажку плавности для кадра
+      * с пределом maxIterations. Если такая уже есть у текущего кадра,
+      * она и возвращается, иначе новая строится в пуле движка: при
+      * больших пределах в ней до миллиона цветов.
+     */
+    private CompletableFuture<ColorMap> createColorMap(int maxIterations)
+    {
+        Palette palette = (Palette) paletteComboBox.getSelectedItem();
+        boolean smooth = smoothCheckBox.isSelected();
+        ColorMap current = colors;
+        if (current != null && current.palette == palette
+            && current.smooth == smooth
+            && current.maxIterations == maxIterations) {
+            return CompletableFuture.completedFuture(current);
+        }
+        return engine.createColorMap(palette, maxIterations, smooth);
+    }
+    
+    /**
+      * Перекрашивает текущий кадр по сохраненному полю итераций.
+      * Если для плавной раскраски в поле нет дробных частей,
+      * фрактал перерисовывается заново. Таблица и цвета считаются в пуле
+      * движка, а на дисплей кадр попадает из потока обработки событий.
+     */
+    private void recolor()
+    {
+        if (field == null) {
+            return;
+        }
+        if (smoothCheckBox.isSelected() && !field.isSmooth()) {
+            drawFractal();
+            return;
+        }
+        engine.cancelSupersample();
+        Object request = new Object();
+        pendingRecolor = request;
+        IterationField recolored = field;
+        int[] rgb = new int[recolored.width * recolored.height];
+        createColorMap(recolored.maxIterations)
+        .thenCompose(map -> engine.recolor(recolored, map, rgb)
+            .thenApply(done -> map))
+        .thenAccept(map -> SwingUtilities.invokeLater(() -> {
+            /** пока считались цвета, могли начать новый кадр **/
+            if (pendingRecolor != request || field != recolored) {
+                return;
+            }
+            pendingRecolor = null;
+            colors = map;
+            display.drawTile(0, 0, recolored.width, recolored.height, rgb);
+            statusLabel.setText(frameStatus);
+            if (lastJob != null && lastJob.field == recolored) {
+                antialias(lastJob, map);
+            }
+        }));
+    }
+    
+    /**
+      * Если включено сглаживание, запускает его для готового кадра job
+      * с таблицей цветов colors. Кадры глубокого увеличения не сглаживаются.
+     */
+    private void antialias(RenderJob job, ColorMap colors)
+    {
+        if (!antialiasCheckBox.isSelected() || job.deepZoom) {
+            return;
+        }
+        engine.supersample(job, colors, EdgeSupersampler.DEFAULT_GRID,
+        new SupersampleUpdater());
+    }
+    
+    /**
+      * Включает или отключает кнопки интерфейса и поле со списком на основе
+      * указанное значение. Обновляет включенное состояние кнопки сохранения, сбросить
+      * кнопка и поле со списком.
+     */
+    private void enableUI(boolean val) {
+        myComboBox.setEnabled(val);
+        formulaButton.setEnabled(val);
+        modeComboBox.setEnabled(val);
+        paletteComboBox.setEnabled(val);
+        smoothCheckBox.setEnabled(val);
+        antialiasCheckBox.setEnabled(val);
+        iterationComboBox.setEnabled(val);
+        moreButton.setEnabled(val && field != null
+        && field.maxIterations < IterationBudget.MAX_ITERATIONS);
+        resetButton.setEnabled(val);
+        saveButton.setEnabled(val);
+    }
+    
+    /**
+      * Получает готовые плитки от движка рендеринга в потоке обработки событий,
+      * рисует их на дисплее и включает интерфейс, когда кадр готов.
+     */
+    private class DisplayUpdater implements RenderListener
+    {
+        public void tilesReady(java.util.List<Tile> tiles)
+        {
+            /**
+             * Плитки копируются прямо в растр дисплея; сам дисплей
+             * перерисовывает накопленную область не чаще раза в кадр.
+             */
+            for (Tile tile : tiles) {
+                display.drawTile(tile.x, tile.y, tile.width, tile.height,
+                tile.rgb);
+            }
+        }
+        
+        public void renderFinished(RenderJob job)
+        {
+            /** Показать, сколько пикселей генератор вычислил на самом деле. **/
+            long total = (long) job.size * job.size;
+            long computed = job.getComputedPixels();
+            TileCache cache = engine.getCache();
+            statusLabel.setText(String.format("вычислено %d из %d пикселей (%.1f%%),"
+            + " кэш: %d попаданий, %d промахов, итераций: %d", computed, total,
+            100.0 * computed / total, cache.getHits(), cache.getMisses(),
+            job.field.maxIterations));
+            if (job.getMirroredPixels() > 0) {
+                statusLabel.setText(statusLabel.getText()
+                + String.format(", отражено: %d", job.getMirroredPixels()));
+            }
+            TileStore store = cache.getStore();
+            if (store != null) {
+                statusLabel.setText(statusLabel.getText()
+                + String.format(", с диска: %d", store.getHits()));
+            }
+            if (job.deepZoom) {
+                statusLabel.setText(statusLabel.getText()
+                + String.format(", глубокое увеличение 2^%d", job.viewport.level));
+            }
+            frameStatus = statusLabel.getText();
+            lastJob = job;
+            showMetrics(job.getMetrics());
+            enableUI(true);
+            antialias(job, job.colors);
+        }
+    }
+    
+    /**
+      * Получатель задания перетаскивания. Пока задание считается, область
+      * могла сдвинуться дальше, поэтому плитки рисуются со смещением между
+      * решеткой задания и текущей областью. Если к концу задания область
+      * сдвинулась, запускается следующее.
+     */
+    private class PanUpdater extends DisplayUpdater
+    {
+        private final Viewport jobViewport;
+        
+        PanUpdater(Viewport jobViewport)
+        {
+            this.jobViewport = jobViewport;
+        }
+        
+        public void tilesReady(java.util.List<Tile> tiles)
+        {
+            java.math.BigInteger shiftX = jobViewport.originCol.subtract(
+            viewport.originCol);
+            java.math.BigInteger shiftY = jobViewport.originRow.subtract(
+            viewport.originRow);
+            if (shiftX.bitLength() > 24 || shiftY.bitLength() > 24) {
+                return;
+            }
+            for (Tile tile : tiles) {
+                display.drawTile(tile.x + shiftX.intValue(),
+                tile.y + shiftY.intValue(), tile.width, tile.height, tile.rgb);
+            }
+        }
+        
+        public void renderFinished(RenderJob job)
+        {
+            if (job != panJob) {
+                return;
+            }
+            panJob = null;
+            if (job.viewport != viewport) {
+                startPan();
+                return;
+            }
+            super.renderFinished(job);
+        }
+    }
+    
+    /**
+      * Рисует сглаженные плитки поверх кадра и дописывает в строку
+      * состояния среднее число образцов на пиксель.
+     */
+    private class SupersampleUpdater extends DisplayUpdater
+    {
+        public void renderFinished(RenderJob job)
+        {
+            statusLabel.setText(frameStatus + String.format(
+            ", сглаживание: %.2f образца на пиксель",
+            job.getSamplesPerPixel()));
+        }
+    }
+    
+    /**
+      * Показывает метрики кадра поверх изображения, если включен HUD.
+      * Кадр, запущенный до включения HUD, метрик не имеет.
+     */
+    private void showMetrics(FrameMetrics metrics)
+    {
+        if (!hudCheckBox.isSelected() || metrics == null) {
+            display.setOverlay();
+            return;
+        }
+        StringBuilder load = new StringBuilder();
+        for (double share : metrics.getWorkerBusyShare()) {
+            load.append(String.format(" %.0f%%", 100 * share));
+        }
+        display.setOverlay(
+            String.format("кадр: %.1f мс, первая плитка: %.1f мс",
+            metrics.getFrameNanos() / 1e6, metrics.getFirstPixelNanos() / 1e6),
+            String.format("бюджет итераций: %,d (%.1f млн/с)",
+            metrics.getIterationBudget(),
+            metrics.getIterationBudgetPerSecond() / 1e6),
+            String.format("в множестве: %.1f%% из %,d пикселей",
+            100 * metrics.getBoundedShare(), metrics.getPixels()),
+            "загрузка потоков:" + load);
+    }
+    
+    private class ComboBoxHandler implements ActionListener
+    {
+        public void actionPerformed(ActionEvent e)
+        {
+            /*  получить фрактал, выбранный пользователем 
+             *  и отобразить его. 
+             */
+            JComboBox<?> mySource = (JComboBox<?>) e.getSource();
+            fractal = (FractalGenerator) mySource.getSelectedItem();
+            resetRange();
+            drawFractal();
+        }
+    }
+    
+    private class FormulaHandler implements ActionListener
+    {
+        /**
+         * Спрашивает формулу, компилирует ее в генератор и добавляет его
+         * в список фракталов; выбор генератора перерисовывает фрактал.
+         */
+        public void actionPerformed(ActionEvent e)
+        {
+            String formula = JOptionPane.showInputDialog(display,
+            "z^2 + c, conj(z)^3 + c, abs(z)^2 + c, julia(-0.8, 0.156): z^2 + c",
+            "Формула", JOptionPane.PLAIN_MESSAGE);
+            if (formula == null || formula.isBlank()) {
+                return;
+            }
+            FractalGenerator generator;
+            try {
+                generator = FormulaCompiler.compile(formula);
+            }
+            catch (IllegalArgumentException | IllegalStateException exception) {
+                JOptionPane.showMessageDialog(display, exception.getMessage(),
+                "Ошибка в формуле", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            myComboBox.addItem(generator);
+            myComboBox.setSelectedItem(generator);
+        }
+    }
+    
+    private class ModeHandler implements ActionListener
+    {
+        /** Перерисовывает фрактал в выбранном режиме. **/
+        public void actionPerformed(ActionEvent e)
+        {
+            drawFractal();
+        }
+    }
+    
+    private class PaletteHandler implements ActionListener
+    {
+        /** Перекрашивает кадр новой палитрой. **/
+        public void actionPerformed(ActionEvent e)
+        {
+            recolor();
+        }
+    }
+    
+    private class AntialiasHandler implements ActionListener
+    {
+        /**
+         * Сглаживает текущий кадр или возвращает ему цвета без сглаживания.
+         */
+        public void actionPerformed(ActionEvent e)
+        {
+            recolor();
+        }
+    }
+    
+    private class MoreIterationsHandler implements ActionListener
+    {
+        /**
+         * Поднимает предел итераций текущего кадра вдвое: движок досчитывает
+         * только пиксели, оставшиеся в области, продолжая их орбиты.
+         */
+        public void actionPerformed(ActionEvent e)
+        {
+            if (field == null) {
+                return;
+            }
+            enableUI(false);
+            int limit = Math.min(2 * field.maxIterations,
+            IterationBudget.MAX_ITERATIONS);
+            IterationField extended = field;
+            Object frame = new Object();
+            pendingFrame = frame;
+            createColorMap(limit)
+            .whenComplete((map, error) -> SwingUtilities.invokeLater(() -> {
+                if (pendingFrame != frame || field != extended) {
+                    return;
+                }
+                pendingFrame = null;
+                if (error != null) {
+                    System.err.println("не удалось построить таблицу цветов: "
+                    + error);
+                    enableUI(true);
+                    return;
+                }
+                colors = map;
+                RenderJob job = engine.extend(extended, map,
+                new DisplayUpdater());
+                field = job.field;
+            }));
+        }
+    }
+    
+    private class HudHandler implements ActionListener
+    {
+        /**
+         * Включает или выключает сбор метрик движка. Текущий кадр уже
+         * посчитан без измерений, поэтому HUD заполнится следующим кадром.
+         */
+        public void actionPerformed(ActionEvent e)
+        {
+            boolean selected = hudCheckBox.isSelected();
+            engine.getMetrics().setEnabled(selected);
+            if (selected) {
+                display.setOverlay("метрики появятся после следующего кадра");
+            }
+            else {
+                display.setOverlay();
+            }
+        }
+    }
+    
+    private class SaveHandler implements ActionListener
+    {
+        public void actionPerformed(ActionEvent e)
+        {
+            /** сохраняем текущее  фрактальное изображение. */
+            
+                /** Разрешить пользователю выбрать 
+                  * файл для сохранения изображения.
+                **/
+                JFileChooser myFileChooser = new JFileChooser();
+                
+                /* сохранять только png файлы*/
+                FileFilter extensionFilter =
+                new FileNameExtensionFilter("PNG Images", "png");
+                myFileChooser.setFileFilter(extensionFilter);
+              
+              
+             /**
+               *  Гарантирует, что средство выбора файлов 
+               * не разрешит другие типы файлов 
+             **/
+                myFileChooser.setAcceptAllFileFilterUsed(false);
+            
+            
+            /**
+              * Всплывает окно «Сохранить файл», в котором пользователь
+              * может выбрать  каталог и файл для сохранения.
+            **/
+                int userSelection = myFileChooser.showSaveDialog(display);
+            
+                if (userSelection == JFileChooser.APPROVE_OPTION) {
+                    /**
+                     *  если пользователь выбрал, куда сохранять файл
+                     * то сохранить файл
+                     **/
+                    java.io.File file = myFileChooser.getSelectedFile();
+                    
+                    try {
+                        BufferedImage displayImage = display.getImage();
+                        javax.imageio.ImageIO.write(displayImage, "png", file);
+                    }
+                    catch (Exception exception) {
+                        /** если произошла ошибка, то вывести ошибку **/
+                        JOptionPane.showMessageDialog(display,
+                        exception.getMessage(), "Cannot Save Image",
+                        JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+                return;
+        }
+    }
+    
+    private class ResetHandler implements ActionListener
+    {
+        /**
+         * Обработчик сбрасывает диапазон до начального диапазона, 
+         * заданного параметром, а затем рисует фрактал.
+         */
+        public void actionPerformed(ActionEvent e)
+        {
+            resetRange();
+            drawFractal();
+        }
+    }
+    
+    private class MouseHandler extends MouseAdapter
+    {
+        /** Последняя точка перетаскивания и было ли оно после нажатия. **/
+        private int dragX;
+        private int dragY;
+        private boolean dragged;
+        
+        /**
+         * Точка последнего щелчка и отошел ли от нее курсор дальше
+         * FOCUS_SLOP: до этого фокус рендеринга остается на точке щелчка,
+         * чтобы дрожание мыши не уводило его в сторону.
+         */
+        private int clickX;
+        private int clickY;
+        private boolean followCursor = true;
+        
+        @Override
+        public void mousePressed(MouseEvent e)
+        {
+            dragX = e.getX();
+            dragY = e.getY();
+            dragged = false;
+        }
+        
+        /**
+         * Курсор над изображением задает фокус рендеринга: плитки рядом
+         * с ним считаются первыми, в том числе у уже идущего кадра.
+         */
+        @Override
+        public void mouseMoved(MouseEvent e)
+        {
+            if (!followCursor && Math.abs(e.getX() - clickX) <= FOCUS_SLOP
+                && Math.abs(e.getY() - clickY) <= FOCUS_SLOP) {
+                return;
+            }
+            followCursor = true;
+            engine.setFocus(e.getX(), e.getY());
+        }
+        
+        /**
+         * Курсор ушел с изображения: пока он следовал за мышью, фокус
+         * снимается, и кадры снова делятся между потоками пула без очереди
+         * по удалению. Фокус на точке последнего щелчка не снимается:
+         * с него начинается уже запущенный кадр.
+         */
+        @Override
+        public void mouseExited(MouseEvent e)
+        {
+            if (followCursor) {
+                engine.clearFocus();
+            }
+        }
+        
+        /**
+         * Перетаскивание сдвигает изображение вслед за мышью.
+         */
+        @Override
+        public void mouseDragged(MouseEvent e)
+        {
+            int dx = e.getX() - dragX;
+            int dy = e.getY() - dragY;
+            if (dx == 0 && dy == 0) {
+                return;
+            }
+            dragX = e.getX();
+            dragY = e.getY();
+            dragged = true;
+            pan(dx, dy);
+        }
+        
+        /**
+         * Когда обработчик получает событие щелчка мыши, он перестраивает
+          * область вокруг пикселя, по которому был выполнен щелчок, на
+          * соседнем уровне решетки и перерисовывает фрактал.
+         **/
+        @Override
+        public void mouseClicked(MouseEvent e)
+        {
+            if (dragged) {
+                return;
+            }
+            /**
+              * Увеличиваем масштаб вдвое левой кнопкой и уменьшаем другой.
+              * Центр прижимается к решетке пикселей текущего кадра, чтобы
+              * совпадающие образцы можно было перенести в новый кадр.
+             **/
+            boolean zoomIn = e.getButton() == MouseEvent.BUTTON1;
+            viewport = viewport.zoom(e.getX(), e.getY(), displaySize, zoomIn);
+            range = viewport.toRange();
+            /**
+             * Точка щелчка оказывается в центре нового кадра, поэтому
+             * с него рендеринг и начинается, хотя курсор остался на месте.
+             **/
+            clickX = e.getX();
+            clickY = e.getY();
+            followCursor = false;
+            engine.setFocus(displaySize / 2, displaySize / 2);
+            /**
+             * перерисовать фрактал.
+             **/
+            drawFractal();
+        }
+    }
+    
+    
+/** * Статический метод main () для запуска FractalExplorer.
+ *  Инициализирует новый экземпляр * FractalExplorer с размером отображения 800,
+ *  вызывает * createAndShowGUI () в объекте проводника, а затем вызывает * drawFractal ()
+ в проводнике, чтобы увидеть начальное представление. 
+ **/
+    public static void main(String[] args)
+    {
+        FractalExplorer displayExplorer = new FractalExplorer(800);
+        displayExplorer.createAndShowGUI();
+        displayExplorer.drawFractal();
+    }
+}
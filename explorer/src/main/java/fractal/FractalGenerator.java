@@ -0,0 +1,246 @@
+package fractal;
+
+import java.awt.geom.Rectangle2D;
+
+
+/**
+ * This class provides the common interface and operations for fractal
+ * generators that can be viewed in the Fractal Explorer.
+ */
+public abstract class FractalGenerator {
+
+    /**
+     * This static helper function takes an integer coordinate and converts it
+     * into a double-precision value corresponding to a specific range.  It is
+     * used to convert pixel coordinates into double-precision values for
+     * computing fractals, etc.
+     *
+     * @param rangeMin the minimum value of the floating-point range
+     * @param rangeMax the maximum value of the floating-point range
+     *
+     * @param size the size of the dimension that the pixel coordinate is from.
+     *        For example, this might be the image width, or the image height.
+     *
+     * @param coord the coordinate to compute the double-precision value for.
+     *        The coordinate should fall in the range [0, size].
+     */
+    public static double getCoord(double rangeMin, double rangeMax,
+        int size, int coord) {
+
+        assert size > 0;
+        assert coord >= 0 && coord < size;
+
+        double range = rangeMax - rangeMin;
+        return rangeMin + (range * (double) coord / (double) size);
+    }
+
+
+    /**
+     * Sets the specified rectangle to contain the initial range suitable for
+     * the fractal being generated.
+     */
+    public abstract void getInitialRange(Rectangle2D.Double range);
+
+
+    /**
+     * Updates the current range to be centered at the specified coordinates,
+     * and to be zoomed in or out by the specified scaling factor.
+     */
+    public void recenterAndZoomRange(Rectangle2D.Double range,
+        double centerX, double centerY, double scale) {
+
+        double newWidth = range.width * scale;
+        double newHeight = range.height * scale;
+
+        range.x = centerX - newWidth / 2;
+        range.y = centerY - newHeight / 2;
+        range.width = newWidth;
+        range.height = newHeight;
+    }
+
+
+    /**
+     * Given a coordinate <em>x</em> + <em>iy</em> in the complex plane,
+     * computes and returns the number of iterations before the fractal
+     * function escapes the bounding area for that point.  A point that
+     * doesn't escape before the iteration limit is reached is indicated
+     * with a result of -1.  The limit is {@link #getMaxIterations}.
+     */
+    public int numIterations(double x, double y) {
+        return numIterations(x, y, getMaxIterations());
+    }
+
+
+    /**
+     * Like {@link #numIterations(double, double)}, but with an explicit
+     * iteration limit for this call.
+     */
+    public abstract int numIterations(double x, double y, int maxIterations);
+
+
+    /**
+     * Computes the number of iterations for <code>count</code> consecutive
+     * pixels of one row and stores them into <code>iterations</code>,
+     * starting at <code>offset</code>.  The real part of pixel
+     * <code>from + i</code> is computed exactly as
+     * {@link #getCoord(double, double, int, int)} would compute it, so the
+     * results match per-pixel calls to {@link #numIterations}.
+     * <p>
+     * This overload uses the limit {@link #getMaxIterations} and keeps no
+     * orbit state.
+     *
+     * @param xMin the minimum value of the real range
+     * @param xMax the maximum value of the real range
+     * @param size the number of pixels the real range is divided into
+     * @param from the pixel coordinate of the first point
+     * @param y the imaginary part shared by all points of the row
+     */
+    public void computeRow(double xMin, double xMax, int size, int from,
+        double y, int[] iterations, int offset, int count) {
+
+        computeRow(xMin, xMax, size, from, y, iterations, offset, count,
+            getMaxIterations(), null);
+    }
+
+
+    /**
+     * Like {@link #computeRow(double, double, int, int, double, int[], int,
+     * int)}, but with an explicit iteration limit.  If <code>orbits</code>
+     * is not null, then for every point that did not escape the last orbit
+     * value <em>z</em> is stored into <code>orbits[2 * j]</code> and
+     * <code>orbits[2 * j + 1]</code>, where <code>j = offset + i</code>, so
+     * that {@link #continueIterations} can later raise the limit without
+     * starting over.  Points whose orbit can't be continued get NaN there.
+     * <p>
+     * The default implementation calls <code>numIterations</code> for every
+     * pixel and stores NaN for every point that did not escape; generators
+     * should override it with a tight loop.
+     */
+    public void computeRow(double xMin, double xMax, int size, int from,
+        double y, int[] iterations, int offset, int count, int maxIterations,
+        double[] orbits) {
+
+        for (int i = 0; i < count; i++) {
+            double x = getCoord(xMin, xMax, size, from + i);
+            int result = numIterations(x, y, maxIterations);
+            iterations[offset + i] = result;
+            if (result < 0 && orbits != null) {
+                orbits[2 * (offset + i)] = Double.NaN;
+                orbits[2 * (offset + i) + 1] = Double.NaN;
+            }
+        }
+    }
+
+
+    /**
+     * Like {@link #computeRow}, but also stores into <code>fractions</code>
+     * the fractional part of the normalized iteration count of every point
+     * that escaped, for smooth coloring.  Points that did not escape get 0.
+     * This overload uses the limit {@link #getMaxIterations}.
+     */
+    public void computeRowSmooth(double xMin, double xMax, int size,
+        int from, double y, int[] iterations, float[] fractions, int offset,
+        int count) {
+
+        computeRowSmooth(xMin, xMax, size, from, y, iterations, fractions,
+            offset, count, getMaxIterations(), null);
+    }
+
+
+    /**
+     * Smooth variant of the explicit-limit <code>computeRow</code>; the
+     * <code>orbits</code> array is filled the same way.
+     * <p>
+     * The default implementation computes the row with
+     * <code>computeRow</code> and leaves all fractions at 0, so generators
+     * that don't override it are colored in bands.
+     */
+    public void computeRowSmooth(double xMin, double xMax, int size,
+        int from, double y, int[] iterations, float[] fractions, int offset,
+        int count, int maxIterations, double[] orbits) {
+
+        computeRow(xMin, xMax, size, from, y, iterations, offset, count,
+            maxIterations, orbits);
+        java.util.Arrays.fill(fractions, offset, offset + count, 0f);
+    }
+
+
+    /**
+     * Continues the orbit of the point <em>x</em> + <em>iy</em>, which did
+     * not escape within <code>start</code> iterations, up to the new limit
+     * <code>maxIterations</code>.  The saved orbit value is read from
+     * <code>orbits[2 * index]</code> and <code>orbits[2 * index + 1]</code>
+     * and replaced with the new last value if the point still doesn't
+     * escape.  If the saved value is NaN, the point is computed from the
+     * start.  Returns the same result as
+     * {@link #numIterations(double, double, int)} with the new limit, and
+     * if <code>fractions</code> is not null stores the fractional part into
+     * <code>fractions[index]</code>.
+     * <p>
+     * The default implementation always computes the point from the start
+     * and stores a fraction of 0.
+     */
+    public int continueIterations(double x, double y, int start,
+        int maxIterations, double[] orbits, int index, float[] fractions) {
+
+        int result = numIterations(x, y, maxIterations);
+        if (fractions != null) {
+            fractions[index] = 0f;
+        }
+        if (result < 0) {
+            orbits[2 * index] = Double.NaN;
+            orbits[2 * index + 1] = Double.NaN;
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns true if the fractal is symmetric about the real axis: the
+     * point <em>x</em> - <em>iy</em> has the conjugate orbit of
+     * <em>x</em> + <em>iy</em>, so its iteration count and fraction are
+     * the same and its saved orbit value is the conjugate.  Renderers may
+     * then copy a row mirrored across the axis instead of computing it,
+     * which is only correct if the results agree bit for bit, so a
+     * generator should return true only when its arithmetic is symmetric
+     * in the sign of the imaginary part.  The default is false.
+     */
+    public boolean isSymmetricAboutRealAxis() {
+        return false;
+    }
+
+
+    /**
+     * Returns the iteration limit used when a caller doesn't pass one:
+     * the fixed budget <code>-Dfractal.iterations</code> if it is set,
+     * otherwise {@link #DEFAULT_MAX_ITERATIONS}.  Renders in the explorer
+     * normally pick their own limit with {@link IterationBudget}.
+     */
+    public int getMaxIterations() {
+        int fixed = IterationBudget.fixed();
+        return (fixed > 0) ? fixed : DEFAULT_MAX_ITERATIONS;
+    }
+
+
+    /**
+     * The iteration limit used when no fixed budget is configured.
+     */
+    public static final int DEFAULT_MAX_ITERATIONS = 2000;
+
+
+    /**
+     * Given the first value <em>z</em> of an orbit that left the circle of
+     * radius 2, returns the fractional part of the normalized iteration
+     * count, 1 - log2(log2 |z|), clamped to [0, 1).
+     */
+    public static float smoothFraction(double zreal, double zimaginary) {
+        double modulus2 = zreal * zreal + zimaginary * zimaginary;
+        double log2Modulus = Math.log(modulus2) / (2 * Math.log(2));
+        double fraction = 1 - Math.log(log2Modulus) / Math.log(2);
+        if (!(fraction > 0)) {
+            return 0f;
+        }
+        return (float) Math.min(fraction, 0.999);
+    }
+}
+
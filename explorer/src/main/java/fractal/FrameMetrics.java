@@ -0,0 +1,191 @@
+package fractal;
+
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Измерения одного кадра: время до первой плитки, полное время, бюджет
+ * итераций, число пикселей, оставшихся в области, и занятость рабочих
+ * потоков. Бюджет итераций - это итерации покинувших область пикселей
+ * плюс предел за каждый оставшийся в ней. Проверка кардиоиды и поиск
+ * циклов останавливают такие пиксели раньше, поэтому бюджет - верхняя
+ * граница проделанной работы, а не число итераций.
+ * Счетчики разнесены по слотам рабочих потоков (индекс потока в пуле),
+ * чтобы потоки не делили одну строку кэша; кадр без измерений вообще
+ * не создает этот объект.
+ */
+public final class FrameMetrics
+{
+    /** Расстояние между слотами в массивах, в элементах long. **/
+    private static final int PAD = 16;
+
+    private final RenderMetrics owner;
+    private final int slots;
+    private final long startNanos = System.nanoTime();
+    private volatile long firstPixelNanos = -1;
+    private volatile long frameNanos = -1;
+
+    /** По слотам: бюджет итераций, пиксели в области, все пиксели. **/
+    private final AtomicLongArray budget;
+    private final AtomicLongArray bounded;
+    private final AtomicLongArray pixels;
+
+    /** По слотам: время в плитках и бюджет на начало текущей плитки. **/
+    private final AtomicLongArray busyNanos;
+    private final AtomicLongArray tileStart;
+
+    FrameMetrics(RenderMetrics owner, int slots)
+    {
+        this.owner = owner;
+        this.slots = slots;
+        budget = new AtomicLongArray(slots * PAD);
+        bounded = new AtomicLongArray(slots * PAD);
+        pixels = new AtomicLongArray(slots * PAD);
+        busyNanos = new AtomicLongArray(slots * PAD);
+        tileStart = new AtomicLongArray(slots * PAD);
+    }
+
+    /**
+     * Слот текущего потока. Потоки вне пула, а также компенсирующие
+     * потоки с индексом больше числа слотов делят слоты с остальными.
+     */
+    private int slot()
+    {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof ForkJoinWorkerThread) {
+            return (((ForkJoinWorkerThread) thread).getPoolIndex() % slots) * PAD;
+        }
+        return 0;
+    }
+
+    /**
+     * Учитывает count только что вычисленных пикселей поля, начиная
+     * с offset. Пиксель, оставшийся в области (-1), входит в бюджет
+     * с maxIterations итерациями, сколько бы их ни было сделано.
+     */
+    void rowComputed(int[] values, int offset, int count, int maxIterations)
+    {
+        long sum = 0;
+        int inside = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int value = values[i];
+            if (value < 0) {
+                sum += maxIterations;
+                inside++;
+            }
+            else {
+                sum += value;
+            }
+        }
+        int slot = slot();
+        budget.addAndGet(slot, sum);
+        pixels.addAndGet(slot, count);
+        if (inside > 0) {
+            bounded.addAndGet(slot, inside);
+        }
+    }
+
+    /**
+     * Отмечает начало плитки в текущем потоке и возвращает время начала.
+     */
+    long tileStarted()
+    {
+        int slot = slot();
+        tileStart.set(slot, budget.get(slot));
+        return System.nanoTime();
+    }
+
+    /**
+     * Отмечает конец плитки, начатой в момент start тем же потоком.
+     */
+    void tileFinished(long start)
+    {
+        int slot = slot();
+        busyNanos.addAndGet(slot, System.nanoTime() - start);
+        owner.tileFinished(budget.get(slot) - tileStart.get(slot));
+    }
+
+    /** Первая пачка плиток показана. **/
+    void firstPixel()
+    {
+        if (firstPixelNanos < 0) {
+            firstPixelNanos = System.nanoTime() - startNanos;
+        }
+    }
+
+    /** Кадр показан целиком. **/
+    void finish()
+    {
+        frameNanos = System.nanoTime() - startNanos;
+        if (firstPixelNanos < 0) {
+            firstPixelNanos = frameNanos;
+        }
+    }
+
+    /** Полное время кадра; -1, пока кадр не завершен. **/
+    public long getFrameNanos()
+    {
+        return frameNanos;
+    }
+
+    /** Время от запуска кадра до показа первых плиток. **/
+    public long getFirstPixelNanos()
+    {
+        return firstPixelNanos;
+    }
+
+    /** Бюджет итераций кадра (см. описание класса). **/
+    public long getIterationBudget()
+    {
+        return sum(budget);
+    }
+
+    /** Число пикселей, которые генератор вычислил в этом кадре. **/
+    public long getPixels()
+    {
+        return sum(pixels);
+    }
+
+    /** Число вычисленных пикселей, достигших предела итераций. **/
+    public long getBoundedPixels()
+    {
+        return sum(bounded);
+    }
+
+    public double getBoundedShare()
+    {
+        long total = getPixels();
+        return (total == 0) ? 0 : (double) getBoundedPixels() / total;
+    }
+
+    public double getIterationBudgetPerSecond()
+    {
+        long nanos = frameNanos;
+        return (nanos <= 0) ? 0 : getIterationBudget() * 1e9 / nanos;
+    }
+
+    /**
+     * Для каждого слота доля времени кадра, проведенная в вычислении
+     * плиток; остальное время поток простаивал или ждал работы.
+     */
+    public double[] getWorkerBusyShare()
+    {
+        double[] share = new double[slots];
+        long nanos = frameNanos;
+        if (nanos > 0) {
+            for (int i = 0; i < slots; i++) {
+                share[i] = Math.min(1.0, (double) busyNanos.get(i * PAD) / nanos);
+            }
+        }
+        return share;
+    }
+
+    private long sum(AtomicLongArray values)
+    {
+        long total = 0;
+        for (int i = 0; i < slots; i++) {
+            total += values.get(i * PAD);
+        }
+        return total;
+    }
+}
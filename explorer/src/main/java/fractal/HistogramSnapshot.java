@@ -0,0 +1,66 @@
+package fractal;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Снимок скользящей гистограммы: число значений в окне, минимум,
+ * процентили и максимум. В JMX отображается как CompositeData.
+ */
+public final class HistogramSnapshot
+{
+    private final long count;
+    private final long min;
+    private final long median;
+    private final long p90;
+    private final long p99;
+    private final long max;
+
+    @ConstructorProperties({ "count", "min", "median", "p90", "p99", "max" })
+    public HistogramSnapshot(long count, long min, long median, long p90,
+        long p99, long max)
+    {
+        this.count = count;
+        this.min = min;
+        this.median = median;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getMin()
+    {
+        return min;
+    }
+
+    public long getMedian()
+    {
+        return median;
+    }
+
+    public long getP90()
+    {
+        return p90;
+    }
+
+    public long getP99()
+    {
+        return p99;
+    }
+
+    public long getMax()
+    {
+        return max;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("n=%d min=%d p50=%d p90=%d p99=%d max=%d",
+            count, min, median, p90, p99, max);
+    }
+}
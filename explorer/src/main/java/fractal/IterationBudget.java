@@ -0,0 +1,149 @@
+package fractal;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Выбор предела итераций для кадра. Оценка по масштабу растет линейно
+ * с числом удвоений увеличения и служит нижней границей; затем пробная
+ * сетка образцов кадра считается с запасом от этой оценки, и по
+ * гистограмме чисел итераций покинувших область образцов предел
+ * поднимается так, чтобы почти все такие пиксели успели покинуть область.
+ * На мелком увеличении это обычно меньше прежних 2000 итераций, на
+ * глубоком и возле мини-копий множества - больше.
+ * Системное свойство fractal.iterations задает фиксированный предел.
+ */
+public final class IterationBudget
+{
+    /** Границы, в которых выбирается предел. **/
+    public static final int MIN_ITERATIONS = 128;
+    public static final int MAX_ITERATIONS = 1 << 20;
+
+    /** Оценка по масштабу: BASE + PER_LEVEL итераций на удвоение. **/
+    private static final int BASE = 256;
+    private static final int PER_LEVEL = 128;
+
+    /** Пробная сетка SAMPLES x SAMPLES образцов. **/
+    private static final int SAMPLES = 32;
+
+    /** Пробный предел во столько раз больше оценки по масштабу. **/
+    private static final int PROBE_FACTOR = 4;
+
+    /** Доля покинувших область образцов, которые должны уложиться в предел. **/
+    private static final double COVERAGE = 0.995;
+
+    /** Запас сверх числа итераций, покрывающего эту долю. **/
+    private static final double HEADROOM = 1.5;
+
+    private IterationBudget()
+    {
+    }
+
+    /**
+     * Фиксированный предел из свойства fractal.iterations или 0, если
+     * предел выбирается автоматически.
+     */
+    public static int fixed()
+    {
+        int value = Integer.getInteger("fractal.iterations", 0);
+        return (value > 0) ? Math.min(value, MAX_ITERATIONS) : 0;
+    }
+
+    /**
+     * Оценка предела только по масштабу области относительно начальной
+     * области генератора.
+     */
+    public static int forScale(FractalGenerator fractal, Viewport viewport)
+    {
+        Rectangle2D.Double initial = new Rectangle2D.Double();
+        fractal.getInitialRange(initial);
+        double levels = Math.log(initial.width / viewport.width) / Math.log(2);
+        return forLevels(levels);
+    }
+
+    /**
+     * Оценка предела для области, уменьшенной относительно начальной
+     * в 2^levels раз.
+     */
+    public static int forLevels(double levels)
+    {
+        long estimate = BASE + Math.round(PER_LEVEL * Math.max(0, levels));
+        return (int) Math.min(estimate, MAX_ITERATIONS);
+    }
+
+    /**
+     * Выбирает предел итераций для кадра size x size. Если предел
+     * зафиксирован, возвращает его. Кадры глубокого увеличения считаются
+     * методом возмущений, и пробные точки в double для них не различимы,
+     * поэтому там используется только оценка по масштабу. Пробные ряды
+     * считаются параллельно в текущем пуле ForkJoin.
+     */
+    public static int choose(FractalGenerator fractal, Viewport viewport,
+        int size)
+    {
+        int fixed = fixed();
+        if (fixed > 0) {
+            return fixed;
+        }
+        int estimate = forScale(fractal, viewport);
+        if (ReferenceOrbit.isNeeded(fractal, viewport, size)) {
+            return round(estimate);
+        }
+
+        int probe = (int) Math.min((long) PROBE_FACTOR * estimate,
+            MAX_ITERATIONS);
+        int[] samples = new int[SAMPLES * SAMPLES];
+        IntStream.range(0, SAMPLES).parallel().forEach(i -> {
+            double y = viewport.yCoord(sampleCoord(i, size), size);
+            for (int j = 0; j < SAMPLES; j++) {
+                double x = viewport.xCoord(sampleCoord(j, size), size);
+                samples[i * SAMPLES + j] = fractal.numIterations(x, y, probe);
+            }
+        });
+        return fromHistogram(samples, estimate, probe);
+    }
+
+    /**
+     * Предел по числам итераций пробных образцов (-1 - не покинул
+     * область за probe итераций).
+     */
+    static int fromHistogram(int[] samples, int estimate, int probe)
+    {
+        int[] escaped = Arrays.stream(samples).filter(n -> n >= 0).sorted()
+            .toArray();
+
+        /** Весь кадр внутри множества: дольше считать незачем. **/
+        if (escaped.length == 0) {
+            return round(Math.min(estimate, probe));
+        }
+        int covered = escaped[(int) Math.ceil(COVERAGE * escaped.length) - 1];
+        long limit = Math.round(covered * HEADROOM);
+
+        /**
+         * Тонкие нити у границы почти не попадают в пробную сетку, поэтому
+         * предел не опускается ниже оценки по масштабу.
+         */
+        limit = Math.max(estimate, Math.min(limit, probe));
+        return round((int) limit);
+    }
+
+    /**
+     * Округляет предел вверх до одного из четырех значений на октаву
+     * (1, 1.25, 1.5, 1.75 степени двойки), чтобы соседние кадры чаще
+     * получали одинаковый предел и делили кэш плиток.
+     */
+    static int round(int limit)
+    {
+        int octave = 31 - Integer.numberOfLeadingZeros(Math.max(limit, 1));
+        int step = Math.max(1, 1 << Math.max(0, octave - 2));
+        long rounded = ((long) limit + step - 1) / step * step;
+        return (int) Math.max(MIN_ITERATIONS, Math.min(rounded, MAX_ITERATIONS));
+    }
+
+    /** Пиксель i-го образца: середина i-й из SAMPLES полос кадра. **/
+    private static int sampleCoord(int i, int size)
+    {
+        return Math.min(size - 1, (2 * i + 1) * size / (2 * SAMPLES));
+    }
+}
@@ -0,0 +1,346 @@
+package fractal;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сохраненное поле итераций кадра: число итераций для каждого пикселя
+ * и, для плавной раскраски, дробная часть нормированного числа итераций.
+ * Раскраска строится по этому полю, поэтому смена палитры не требует
+ * повторного вычисления фрактала. Еще не вычисленные пиксели помечены
+ * значением UNKNOWN.
+ */
+public final class IterationField
+{
+    /** Метка еще не вычисленного пикселя. **/
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    /** Наибольшая разница уровней, при которой ищутся совпадения. **/
+    private static final int MAX_LEVEL_SHIFT = 16;
+
+    /**
+     * Сколько ждать, пока задачи отмененного кадра допишут свои ряды:
+     * они проверяют отмену после каждого ряда, так что обычно хватает
+     * нескольких миллисекунд.
+     */
+    private static final long QUIESCENCE_MILLIS = 250;
+
+    /** Генератор и область, для которых вычислено поле. **/
+    public final FractalGenerator fractal;
+    public final Viewport viewport;
+
+    /** Размер поля в пикселях. **/
+    public final int width;
+    public final int height;
+
+    /**
+     * Число итераций для каждого пикселя, построчно; -1 для точек,
+     * не покинувших область.
+     */
+    public final int[] iterations;
+
+    /**
+     * Дробная часть числа итераций в [0, 1) для плавной раскраски,
+     * построчно, или null, если она не вычислялась.
+     */
+    public final float[] fractions;
+
+    /** Предел итераций, с которым было вычислено поле. **/
+    public final int maxIterations;
+
+    /**
+     * Последние значения z пикселей, не покинувших область (по два
+     * элемента на пиксель), или null, если они не сохраняются. NaN
+     * означает, что орбиту пикселя нельзя продолжить и его придется
+     * считать заново.
+     */
+    public final double[] orbits;
+
+    /**
+     * Если больше 0 - предел предыдущего поля того же кадра: еще не
+     * вычисленные пиксели продолжают свои орбиты с этой итерации
+     * (см. continueFrom).
+     */
+    int resumeFrom;
+
+    /**
+     * Есть ли в поле угаданные, а не вычисленные значения: их пишет
+     * заливка Мариани-Силвера. Такое поле не сохраняется в кэш, и его
+     * образцы не переносятся в кадры других режимов.
+     */
+    private volatile boolean guessed;
+
+    /**
+     * Открыт, пока в поле пишут задачи задания (см. beginWriting); null
+     * у полей, которые заполняются без пула.
+     */
+    private volatile CountDownLatch writing;
+
+    public IterationField(FractalGenerator fractal, Viewport viewport,
+        int width, int height, int maxIterations, boolean smooth)
+    {
+        this(fractal, viewport, width, height, maxIterations, smooth, false);
+    }
+
+    /**
+     * Создает поле; если keepOrbits, для пикселей, оставшихся в области,
+     * сохраняются значения z, чтобы предел итераций можно было поднять.
+     */
+    public IterationField(FractalGenerator fractal, Viewport viewport,
+        int width, int height, int maxIterations, boolean smooth,
+        boolean keepOrbits)
+    {
+        this.fractal = fractal;
+        this.viewport = viewport;
+        this.width = width;
+        this.height = height;
+        this.maxIterations = maxIterations;
+        this.iterations = new int[width * height];
+        this.fractions = smooth ? new float[width * height] : null;
+        Arrays.fill(iterations, UNKNOWN);
+        if (keepOrbits) {
+            this.orbits = new double[2 * width * height];
+            Arrays.fill(orbits, Double.NaN);
+        }
+        else {
+            this.orbits = null;
+        }
+    }
+
+    /** Вычислен ли пиксель с индексом index. **/
+    public boolean isKnown(int index)
+    {
+        return iterations[index] != UNKNOWN;
+    }
+
+    /** Отмечает, что в поле записаны угаданные значения. **/
+    void markGuessed()
+    {
+        guessed = true;
+    }
+
+    /**
+     * Отмечает, что в поле будут писать задачи пула: пока не вызван
+     * finishWriting, другие поля не переносят из него образцы.
+     */
+    void beginWriting()
+    {
+        writing = new CountDownLatch(1);
+    }
+
+    /**
+     * Отмечает, что ни одна задача больше не пишет в поле, - и у
+     * досчитанного, и у отмененного кадра.
+     */
+    void finishWriting()
+    {
+        CountDownLatch latch = writing;
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Ждет, пока в поле перестанут писать, но не дольше QUIESCENCE_MILLIS.
+     * Возвращает false, если задачи так и не завершились (например, пул
+     * остановлен или задача упала) или поток прерван.
+     */
+    boolean awaitWritten()
+    {
+        CountDownLatch latch = writing;
+        if (latch == null) {
+            return true;
+        }
+        try {
+            return latch.await(QUIESCENCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Есть ли в поле угаданные значения (см. markGuessed). **/
+    public boolean hasGuesses()
+    {
+        return guessed;
+    }
+
+    /** Есть ли в поле дробные части для плавной раскраски. **/
+    public boolean isSmooth()
+    {
+        return fractions != null;
+    }
+
+    /**
+     * Переносит в это поле образцы предыдущего кадра, которые точно
+     * совпадают с пикселями этого кадра. Это возможно, если оба кадра
+     * посчитаны одним генератором на одной решетке пикселей (см. Viewport):
+     * при увеличении вдвое совпадает каждый второй пиксель по обеим осям
+     * нового кадра, при уменьшении - четверть нового кадра целиком.
+     * Пределы итераций кадров могут различаться: число итераций
+     * покинувшей область точки от предела не зависит, а точка, не
+     * покинувшая область за больший предел, не покинет ее и за меньший.
+     * Если в previous есть угаданные значения, это поле тоже помечается
+     * как угаданное. Образцы берутся, только когда задачи кадра previous
+     * (в том числе отмененного) перестали в него писать; если они не
+     * успели завершиться, ничего не переносится. Возвращает число
+     * перенесенных пикселей.
+     */
+    public int copyAlignedSamples(IterationField previous)
+    {
+        if (previous == null || previous.fractal != fractal
+            || (isSmooth() && !previous.isSmooth())
+            || !viewport.sharesLatticeWith(previous.viewport)
+            || !previous.awaitWritten()) {
+            return 0;
+        }
+        int shift = viewport.level - previous.viewport.level;
+        if (Math.abs(shift) > MAX_LEVEL_SHIFT) {
+            return 0;
+        }
+        boolean sameLimit = previous.maxIterations == maxIterations;
+        boolean copyOrbits = sameLimit && orbits != null
+            && previous.orbits != null;
+
+        /** Для каждого столбца нового кадра - столбец старого или -1. **/
+        int[] columns = new int[width];
+        for (int col = 0; col < width; col++) {
+            columns[col] = previousIndex(viewport.originCol, col, shift,
+                previous.viewport.originCol, previous.width);
+        }
+
+        int copied = 0;
+        for (int row = 0; row < height; row++) {
+            int previousRow = previousIndex(viewport.originRow, row, shift,
+                previous.viewport.originRow, previous.height);
+            if (previousRow < 0) {
+                continue;
+            }
+            for (int col = 0; col < width; col++) {
+                if (columns[col] < 0) {
+                    continue;
+                }
+                int from = previousRow * previous.width + columns[col];
+                int to = row * width + col;
+                if (!previous.isKnown(from)) {
+                    continue;
+                }
+                int value = limited(previous.iterations[from],
+                    previous.maxIterations);
+                if (value == UNKNOWN) {
+                    continue;
+                }
+                iterations[to] = value;
+                if (fractions != null) {
+                    fractions[to] = (value < 0) ? 0f : previous.fractions[from];
+                }
+                if (copyOrbits) {
+                    orbits[2 * to] = previous.orbits[2 * from];
+                    orbits[2 * to + 1] = previous.orbits[2 * from + 1];
+                }
+                copied++;
+            }
+        }
+        if (copied > 0 && previous.guessed) {
+            guessed = true;
+        }
+        return copied;
+    }
+
+    /**
+     * Готовит поле к тому, чтобы поднять предел итераций кадра поля
+     * previous (та же область и размер, меньший предел): переносит все
+     * покинувшие область пиксели, а для остальных - сохраненные значения z.
+     * Эти пиксели остаются невычисленными, и RenderJob продолжает их орбиты
+     * с итерации previous.maxIterations, не считая их заново. Если в
+     * previous еще пишут задачи его кадра, поле остается пустым и
+     * считается целиком. Возвращает число пикселей, которые осталось
+     * досчитать.
+     */
+    public int continueFrom(IterationField previous)
+    {
+        if (previous.fractal != fractal || previous.width != width
+            || previous.height != height
+            || previous.maxIterations >= maxIterations
+            || previous.viewport != viewport) {
+            throw new IllegalArgumentException(
+                "field is not a lower-limit copy of this frame");
+        }
+        if (!previous.awaitWritten()) {
+            int unknown = 0;
+            for (int i = 0; i < iterations.length; i++) {
+                if (!isKnown(i)) {
+                    unknown++;
+                }
+            }
+            return unknown;
+        }
+        resumeFrom = previous.maxIterations;
+        int remaining = 0;
+        for (int i = 0; i < iterations.length; i++) {
+            if (isKnown(i)) {
+                continue;
+            }
+            int value = previous.iterations[i];
+            if (value >= 0 && (fractions == null || previous.fractions != null)) {
+                iterations[i] = value;
+                if (fractions != null) {
+                    fractions[i] = previous.fractions[i];
+                }
+                continue;
+            }
+            if (value < 0 && value != UNKNOWN && orbits != null
+                && previous.orbits != null) {
+                orbits[2 * i] = previous.orbits[2 * i];
+                orbits[2 * i + 1] = previous.orbits[2 * i + 1];
+            }
+            remaining++;
+        }
+        if (previous.guessed) {
+            guessed = true;
+        }
+        return remaining;
+    }
+
+    /**
+     * Значение пикселя, посчитанного с пределом previousLimit, для
+     * предела этого поля или UNKNOWN, если его нельзя узнать без вычисления.
+     */
+    private int limited(int value, int previousLimit)
+    {
+        if (value >= 0) {
+            return (value < maxIterations) ? value : -1;
+        }
+        return (previousLimit >= maxIterations) ? -1 : UNKNOWN;
+    }
+
+    /**
+     * Переводит номер пикселя origin + offset решетки уровня L в локальный
+     * номер пикселя кадра уровня L - shift, начинающегося с previousOrigin.
+     * Возвращает -1, если такого пикселя нет или он не попадает в старый кадр.
+     */
+    private static int previousIndex(BigInteger origin, int offset, int shift,
+        BigInteger previousOrigin, int previousLength)
+    {
+        BigInteger global = origin.add(BigInteger.valueOf(offset));
+        BigInteger previousGlobal;
+        if (shift >= 0) {
+            previousGlobal = global.shiftRight(shift);
+            if (!previousGlobal.shiftLeft(shift).equals(global)) {
+                return -1;
+            }
+        }
+        else {
+            previousGlobal = global.shiftLeft(-shift);
+        }
+        BigInteger local = previousGlobal.subtract(previousOrigin);
+        if (local.signum() < 0 || local.bitLength() > 31
+            || local.intValue() >= previousLength) {
+            return -1;
+        }
+        return local.intValue();
+    }
+}
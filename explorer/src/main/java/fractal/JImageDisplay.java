@@ -0,0 +1,237 @@
+package fractal;
+
+import javax.swing.*;
+import java.awt.image.*;
+import java.awt.*;
+
+/**
+* Этот класс позволяет нам отображать наши фракталы.
+ * Он является производным от javax.swing.JComponent.
+ */
+public class JImageDisplay extends JComponent
+{
+    /**
+     * Экземпляр буферизованного изображения.
+     */ 
+    private BufferedImage displayImage;
+    
+    /**
+     * Растр изображения. Для TYPE_INT_RGB он хранит пиксели в DataBufferInt,
+     * и setDataElements копирует в него ряды через System.arraycopy, без
+     * преобразования цвета. Массив данных не извлекается напрямую: тогда
+     * изображение навсегда перестало бы быть управляемым и ускоряемым.
+     */
+    private WritableRaster raster;
+    
+    /** Ряд черных пикселей для очистки изображения. **/
+    private int[] blankRow;
+    
+    /** Интервал между перерисовками при рендеринге, в миллисекундах. **/
+    private static final int FRAME_MILLIS = 16;
+    
+    /**
+     * Границы области, измененной с последней перерисовки; пустая,
+     * если dirtyMaxX не больше dirtyMinX.
+     */
+    private int dirtyMinX;
+    private int dirtyMinY;
+    private int dirtyMaxX;
+    private int dirtyMaxY;
+    
+    /** Таймер, который перерисовывает накопленную область раз в кадр. **/
+    private Timer repaintTimer;
+    
+    /**
+     * Строки поверх изображения (HUD) или null. В само изображение
+     * они не попадают, поэтому сохраненный файл остается чистым.
+     */
+    private String[] overlay;
+    
+    /**
+     * Метод получения отображаемого изображения из другого класса
+     */
+    public BufferedImage getImage() {
+        return displayImage;
+    }
+    
+    /**
+      * Конструктор принимает целые значения ширины и высоты и инициализирует
+      * его объект BufferedImage должен быть новым изображением с такой шириной и высотой
+      * типа изображения TYPE_INT_RGB.
+      */
+    public JImageDisplay(int width, int height) {
+        displayImage = new BufferedImage(width, height,
+        BufferedImage.TYPE_INT_RGB);
+        raster = displayImage.getRaster();
+        blankRow = new int[width];
+        repaintTimer = new Timer(FRAME_MILLIS, e -> flushDirty());
+        repaintTimer.setRepeats(false);
+        
+        /** 
+         * Вызвать метод setPreferredSize () родительского класса
+         * с заданной шириной и высотой.
+         */
+        Dimension imageDimension = new Dimension(width, height);
+        super.setPreferredSize(imageDimension);
+        
+    }
+    @Override
+    public void paintComponent(Graphics g)
+    {
+        super.paintComponent(g);
+        g.drawImage(displayImage, 0, 0, displayImage.getWidth(),
+        displayImage.getHeight(), null);
+        if (overlay != null) {
+            paintOverlay(g);
+        }
+    }
+    
+    /**
+     * Рисует строки HUD в полупрозрачной рамке в левом верхнем углу.
+     */
+    private void paintOverlay(Graphics g)
+    {
+        FontMetrics metrics = g.getFontMetrics();
+        int lineHeight = metrics.getHeight();
+        int width = 0;
+        for (String line : overlay) {
+            width = Math.max(width, metrics.stringWidth(line));
+        }
+        g.setColor(new Color(0, 0, 0, 160));
+        g.fillRect(4, 4, width + 8, overlay.length * lineHeight + 6);
+        g.setColor(Color.WHITE);
+        int y = 7 + metrics.getAscent();
+        for (String line : overlay) {
+            g.drawString(line, 8, y);
+            y += lineHeight;
+        }
+    }
+    
+    /**
+     * Задает строки HUD; без аргументов или null HUD скрывается.
+     */
+    public void setOverlay(String... lines)
+    {
+        overlay = (lines == null || lines.length == 0) ? null : lines.clone();
+        repaint();
+    }
+    /**
+     * Устанавливает все пиксели в данных изображения черными.
+     */
+    public void clearImage()
+    {
+        int width = displayImage.getWidth();
+        int height = displayImage.getHeight();
+        for (int y = 0; y < height; y++) {
+            raster.setDataElements(0, y, width, 1, blankRow);
+        }
+        markDirty(0, 0, width, height);
+    }
+    /**
+     * Устанавливает пиксель определенного цвета.
+     */
+    public void drawPixel(int x, int y, int rgbColor)
+    {
+        displayImage.setRGB(x, y, rgbColor);
+        markDirty(x, y, 1, 1);
+    }
+    /**
+     * Рисует прямоугольную область цветов, записанных в массив построчно.
+     * Ряд пикселей - это плитка высотой 1. Части плитки за краями
+     * изображения отбрасываются.
+     */
+    public void drawTile(int x, int y, int width, int height, int[] rgb)
+    {
+        int imageWidth = displayImage.getWidth();
+        int imageHeight = displayImage.getHeight();
+        if (x >= 0 && y >= 0 && x + width <= imageWidth
+            && y + height <= imageHeight) {
+            raster.setDataElements(x, y, width, height, rgb);
+            markDirty(x, y, width, height);
+            return;
+        }
+        int left = Math.max(x, 0);
+        int right = Math.min(x + width, imageWidth);
+        int top = Math.max(y, 0);
+        int bottom = Math.min(y + height, imageHeight);
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        int[] row = new int[right - left];
+        for (int line = top; line < bottom; line++) {
+            System.arraycopy(rgb, (line - y) * width + left - x, row, 0,
+                row.length);
+            raster.setDataElements(left, line, row.length, 1, row);
+        }
+        markDirty(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Сдвигает изображение на dx пикселей вправо и dy вниз; открывшиеся
+     * полосы заливаются черным. Перерисовка, как и для плиток,
+     * откладывается до следующего кадра.
+     */
+    public void shiftImage(int dx, int dy)
+    {
+        int width = displayImage.getWidth();
+        int height = displayImage.getHeight();
+        if (Math.abs(dx) >= width || Math.abs(dy) >= height) {
+            clearImage();
+            return;
+        }
+        Graphics g = displayImage.getGraphics();
+        g.copyArea(Math.max(0, -dx), Math.max(0, -dy), width - Math.abs(dx),
+        height - Math.abs(dy), dx, dy);
+        g.dispose();
+
+        /** открывшиеся ряды сверху или снизу и столбцы слева или справа **/
+        int rowsFrom = (dy > 0) ? 0 : height + dy;
+        for (int y = rowsFrom; y < rowsFrom + Math.abs(dy); y++) {
+            raster.setDataElements(0, y, width, 1, blankRow);
+        }
+        int columnsFrom = (dx > 0) ? 0 : width + dx;
+        if (dx != 0) {
+            for (int y = 0; y < height; y++) {
+                raster.setDataElements(columnsFrom, y, Math.abs(dx), 1, blankRow);
+            }
+        }
+        markDirty(0, 0, width, height);
+    }
+    
+    /**
+     * Добавляет прямоугольник к измененной области и, если перерисовка
+     * еще не запланирована, планирует ее через FRAME_MILLIS. Все плитки,
+     * пришедшие за это время, перерисовываются одним вызовом repaint.
+     */
+    private void markDirty(int x, int y, int width, int height)
+    {
+        if (dirtyMaxX <= dirtyMinX) {
+            dirtyMinX = x;
+            dirtyMinY = y;
+            dirtyMaxX = x + width;
+            dirtyMaxY = y + height;
+        }
+        else {
+            dirtyMinX = Math.min(dirtyMinX, x);
+            dirtyMinY = Math.min(dirtyMinY, y);
+            dirtyMaxX = Math.max(dirtyMaxX, x + width);
+            dirtyMaxY = Math.max(dirtyMaxY, y + height);
+        }
+        if (!repaintTimer.isRunning()) {
+            repaintTimer.start();
+        }
+    }
+    
+    /**
+     * Перерисовывает накопленную область; вызывается таймером в потоке
+     * обработки событий.
+     */
+    private void flushDirty()
+    {
+        if (dirtyMaxX > dirtyMinX) {
+            repaint(dirtyMinX, dirtyMinY, dirtyMaxX - dirtyMinX,
+            dirtyMaxY - dirtyMinY);
+            dirtyMaxX = dirtyMinX;
+        }
+    }
+}
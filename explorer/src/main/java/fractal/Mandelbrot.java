@@ -0,0 +1,318 @@
+package fractal;
+
+import java.awt.geom.Rectangle2D;
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Этот класс является подклассом Fractal Generator. Он используется для вычисления фрактала Мандельборта.
+ */
+public class Mandelbrot extends FractalGenerator implements PerturbationFormula
+{
+    /**
+     * Этот метод позволяет генератору фракталов указать, какая часть
+      комплексной плоскости наиболее интересна для фрактала.
+      Ему передается объект прямоугольника, и метод изменяет
+      прямоугольник, чтобы показать правильный начальный диапазон для фрактала.
+      Эта реализация устанавливает начальный диапазон в (-2 - 1,5i) - (1 + 1,5i)
+      или x = -2, y = -1,5, width = height = 3.
+     */
+    public void getInitialRange(Rectangle2D.Double range)
+    {
+        range.x = -2;
+        range.y = -1.5;
+        range.width = 3;
+        range.height = 3;
+    }
+    
+    /**
+     * Этот метод реализует итерационную функцию для фрактала Мандельброта.
+     
+     */
+    public int numIterations(double x, double y, int maxIterations)
+    {
+        return iterate(x, y, maxIterations, null, null, 0);
+    }
+    
+    /**
+     * Вычисляет число итераций для целого отрезка ряда пикселей.
+     * Цикл по пикселям и итерационная функция находятся в одном
+     * классе, поэтому JIT встраивает iterate() и не делает
+     * виртуального вызова на каждый пиксель.
+     */
+    @Override
+    public void computeRow(double xMin, double xMax, int size, int from,
+        double y, int[] iterations, int offset, int count, int maxIterations,
+        double[] orbits)
+    {
+        EscapeKernel kernel = EscapeKernel.vector();
+        if (kernel != null)
+        {
+            kernel.computeRow(EscapeKernel.MANDELBROT, maxIterations, xMin, xMax,
+                size, from, y, iterations, offset, count, orbits);
+            return;
+        }
+        
+        double xRange = xMax - xMin;
+        for (int i = 0; i < count; i++)
+        {
+            double x = xMin + (xRange * (double) (from + i) / (double) size);
+            iterations[offset + i] = iterate(x, y, maxIterations, null,
+                orbits, offset + i);
+        }
+    }
+    
+    /**
+     * Вместе с числом итераций сохраняет дробную часть для плавной
+     * раскраски. Векторное ядро дробные части не считает, поэтому
+     * здесь всегда используется скалярный цикл.
+     */
+    @Override
+    public void computeRowSmooth(double xMin, double xMax, int size,
+        int from, double y, int[] iterations, float[] fractions, int offset,
+        int count, int maxIterations, double[] orbits)
+    {
+        double xRange = xMax - xMin;
+        for (int i = 0; i < count; i++)
+        {
+            double x = xMin + (xRange * (double) (from + i) / (double) size);
+            iterations[offset + i] = iterate(x, y, maxIterations, fractions,
+                orbits, offset + i);
+        }
+    }
+    
+    /**
+     * Продолжает орбиту точки с сохраненного значения z; результат
+     * совпадает с вычислением с нуля с новым пределом.
+     */
+    @Override
+    public int continueIterations(double x, double y, int start,
+        int maxIterations, double[] orbits, int index, float[] fractions)
+    {
+        double zreal = orbits[2 * index];
+        double zimaginary = orbits[2 * index + 1];
+        if (Double.isNaN(zreal))
+        {
+            return iterate(x, y, maxIterations, fractions, orbits, index);
+        }
+        return escape(x, y, zreal, zimaginary, start, maxIterations,
+            fractions, orbits, index);
+    }
+    
+    /**
+     * Шаг опорной орбиты Z' = Z^2 + C в BigDecimal.
+     */
+    public void referenceStep(BigDecimal[] z, BigDecimal cx, BigDecimal cy,
+        MathContext mc)
+    {
+        BigDecimal zreal = z[0];
+        BigDecimal zimaginary = z[1];
+        z[0] = zreal.multiply(zreal, mc).subtract(
+            zimaginary.multiply(zimaginary, mc), mc).add(cx, mc);
+        z[1] = zreal.multiply(zimaginary, mc).multiply(BigDecimal.valueOf(2))
+            .add(cy, mc);
+    }
+    
+    /**
+     * Итерирует отклонение d' = 2Zd + d^2 + dc от опорной орбиты.
+     * Проверка кардиоиды и поиск циклов здесь не применяются: координата
+     * пикселя в double слишком груба, а точные повторы отклонения почти
+     * не встречаются.
+     */
+    public int iterateDelta(ReferenceOrbit orbit, int start, double dx,
+        double dy, double dcx, double dcy, float[] fractions, int index)
+    {
+        double[] referenceReal = orbit.real;
+        double[] referenceImaginary = orbit.imaginary;
+        int last = orbit.length - 1;
+        int reference = start;
+        int iteration = start;
+        double zreal = 0;
+        double zimaginary = 0;
+        
+        int maxIterations = orbit.maxIterations;
+        while (iteration < maxIterations)
+        {
+            zreal = referenceReal[reference] + dx;
+            zimaginary = referenceImaginary[reference] + dy;
+            double modulus = zreal * zreal + zimaginary * zimaginary;
+            if (modulus >= 4)
+            {
+                break;
+            }
+            
+            /**
+             * Отклонение сравнялось с самой точкой или опорная орбита
+             * закончилась: продолжаем от начала орбиты, где Z0 = 0,
+             * а отклонение равно всей точке z.
+             */
+            if (modulus < dx * dx + dy * dy || reference == last)
+            {
+                dx = zreal;
+                dy = zimaginary;
+                reference = 0;
+            }
+            
+            double real = referenceReal[reference];
+            double imaginary = referenceImaginary[reference];
+            double dxUpdated = 2 * (real * dx - imaginary * dy)
+                + dx * dx - dy * dy + dcx;
+            double dyUpdated = 2 * (real * dy + imaginary * dx)
+                + 2 * dx * dy + dcy;
+            dx = dxUpdated;
+            dy = dyUpdated;
+            reference += 1;
+            iteration += 1;
+        }
+        
+        if (iteration == maxIterations)
+        {
+            return -1;
+        }
+        if (fractions != null)
+        {
+            fractions[index] = smoothFraction(zreal, zimaginary);
+        }
+        return iteration;
+    }
+    
+    /**
+     * z^2 + c - голоморфная функция, для нее ряд применим.
+     */
+    public boolean supportsSeries()
+    {
+        return true;
+    }
+    
+    /**
+     * Итерационная функция для точки x + iy. Возвращает -1, если точка
+     * не покинула область за maxIterations итераций. Если fractions
+     * не null, в fractions[index] записывается дробная часть числа
+     * итераций покинувшей область точки. Если orbits не null, для точки,
+     * оставшейся в области, туда записывается последнее значение z
+     * (NaN для точек кардиоиды, у которых орбиты нет).
+     */
+    private static int iterate(double x, double y, int maxIterations,
+        float[] fractions, double[] orbits, int index)
+    {
+        /** точки главной кардиоиды и круга периода 2 не покидают область. */
+        if (isInMainCardioidOrBulb(x, y))
+        {
+            if (orbits != null)
+            {
+                orbits[2 * index] = Double.NaN;
+                orbits[2 * index + 1] = Double.NaN;
+            }
+            return -1;
+        }
+        
+        /** начать итерации с 0, Z0 = 0. */
+        return escape(x, y, 0, 0, 0, maxIterations, fractions, orbits, index);
+    }
+    
+    /**
+     * Итерирует орбиту точки x + iy со значения zreal + i zimaginary на
+     * итерации iteration до выхода из области или до maxIterations.
+     */
+    private static int escape(double x, double y, double zreal,
+        double zimaginary, int iteration, int maxIterations, float[] fractions,
+        double[] orbits, int index)
+    {
+        /**
+         * Сохраненная точка орбиты для поиска цикла по методу Брента:
+         * она запоминается на итерациях 1, 2, 4, 8, ... (считая от начала
+         * этого вызова) и сравнивается с каждой следующей точкой.
+         */
+        double savedReal = zreal;
+        double savedImaginary = zimaginary;
+        int nextSave = iteration + 1;
+        
+        /**
+         * Вычислить Zn = Zn-1 ^ 2 + c, где значения представляют собой комплексные числа, представленные
+          * по zreal и zimaginary, Z0 = 0, а c - конкретная точка в
+          * фрактале, который мы показываем (заданный x и y). Это повторяется
+          * до тех пор, пока Z ^ 2> 4 (абсолютное значение Z больше 2) или
+          * количество итераций достигнуто максимума.
+         */
+        while (iteration < maxIterations &&
+               zreal * zreal + zimaginary * zimaginary < 4)
+        {
+            double zrealUpdated = zreal * zreal - zimaginary * zimaginary + x;
+            double zimaginaryUpdated = 2 * zreal * zimaginary + y;
+            zreal = zrealUpdated;
+            zimaginary = zimaginaryUpdated;
+            iteration += 1;
+
+            /**
+             * Орбита вернулась точно в сохраненную точку: дальше она
+             * повторяется и никогда не покинет область.
+             */
+            if (zreal == savedReal && zimaginary == savedImaginary)
+            {
+                iteration = maxIterations;
+                break;
+            }
+            if (iteration == nextSave)
+            {
+                savedReal = zreal;
+                savedImaginary = zimaginary;
+                nextSave <<= 1;
+            }
+        }
+        
+        /**
+          * Если количество максимальных итераций достигнуто, возвращает -1
+          * и запоминает z, чтобы предел можно было поднять позже.
+         */
+        if (iteration == maxIterations)
+        {
+            if (orbits != null)
+            {
+                orbits[2 * index] = zreal;
+                orbits[2 * index + 1] = zimaginary;
+            }
+            return -1;
+        }
+        
+        if (fractions != null)
+        {
+            fractions[index] = smoothFraction(zreal, zimaginary);
+        }
+        return iteration;
+    }
+    
+    /**
+     * Проверяет, лежит ли точка c = x + iy внутри главной кардиоиды
+     * или круга периода 2 множества Мандельброта. Такие точки принадлежат
+     * множеству, и их можно не итерировать.
+     */
+    static boolean isInMainCardioidOrBulb(double x, double y)
+    {
+        double xShifted = x - 0.25;
+        double y2 = y * y;
+        double q = xShifted * xShifted + y2;
+        if (q * (q + xShifted) < 0.25 * y2)
+        {
+            return true;
+        }
+        double xBulb = x + 1;
+        return xBulb * xBulb + y2 < 0.0625;
+    }
+    
+    /**
+     * Сопряженная точка дает сопряженную орбиту: шаг z^2 + c меняет знак
+     * мнимой части точно, а проверка кардиоиды зависит только от y^2.
+     */
+    @Override
+    public boolean isSymmetricAboutRealAxis()
+    {
+        return true;
+    }
+    
+    /**
+     */
+    public String toString() {
+        return "Мальдерброт";
+    }
+
+}
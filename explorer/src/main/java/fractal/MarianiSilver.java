@@ -0,0 +1,143 @@
+package fractal;
+
+/**
+ * Заполнение плитки делением прямоугольников (алгоритм Мариани-Силвера).
+ * Для прямоугольника вычисляется только его граница. Если все пиксели
+ * границы имеют одинаковое число итераций, внутренность заливается этим
+ * значением без вычислений; иначе прямоугольник делится пополам по длинной
+ * стороне (половины делят общую линию пикселей) и каждая половина
+ * обрабатывается так же. Работает с любым FractalGenerator.
+ * При плавной раскраске заливается только внутренность множества.
+ */
+final class MarianiSilver
+{
+    /** Прямоугольник с меньшей стороной не делится, а считается целиком. **/
+    private static final int MIN_SIZE = 4;
+
+    private MarianiSilver()
+    {
+    }
+
+    /**
+     * Заполняет поле итераций кадра для плитки с левым верхним углом
+     * (tileX, tileY). Пиксели, уже известные в поле, не пересчитываются
+     * и не затираются заливкой. Возвращает false, если задание было отменено.
+     */
+    static boolean computeTile(RenderJob job, int tileX, int tileY,
+        int width, int height)
+    {
+        int[] iterations = job.field.iterations;
+        int stride = job.size;
+        return subdivide(job, stride, iterations, tileX, tileY, width, height);
+    }
+
+    /**
+     * Обрабатывает прямоугольник [x, x + w) x [y, y + h) в координатах кадра.
+     */
+    private static boolean subdivide(RenderJob job, int stride,
+        int[] iterations, int x, int y, int w, int h)
+    {
+        if (job.isCancelled()) {
+            return false;
+        }
+
+        /** Маленький прямоугольник дешевле посчитать целиком. **/
+        if (w <= MIN_SIZE || h <= MIN_SIZE) {
+            for (int row = y; row < y + h; row++) {
+                job.computeMissing(row, x, x + w);
+            }
+            return true;
+        }
+
+        /** Вычислить верхний и нижний ряды, левый и правый столбцы. **/
+        job.computeMissing(y, x, x + w);
+        job.computeMissing(y + h - 1, x, x + w);
+        for (int row = y + 1; row < y + h - 1; row++) {
+            computeCell(job, stride, iterations, x, row);
+            computeCell(job, stride, iterations, x + w - 1, row);
+        }
+
+        if (isBorderUniform(stride, iterations, x, y, w, h)) {
+            int value = iterations[y * stride + x];
+
+            /**
+             * Дробные части внутри полосы меняются от пикселя к пикселю,
+             * и заливка одной из них дала бы плоское пятно. При плавной
+             * раскраске заливаются только точки множества, у которых
+             * дробная часть всегда 0, а остальная внутренность считается.
+             */
+            if (job.field.isSmooth() && value >= 0) {
+                for (int row = y + 1; row < y + h - 1; row++) {
+                    job.computeMissing(row, x + 1, x + w - 1);
+                }
+                return true;
+            }
+            float[] fractions = job.field.fractions;
+            if (w > 2 && h > 2) {
+                job.field.markGuessed();
+            }
+            for (int row = y + 1; row < y + h - 1; row++) {
+                for (int index = row * stride + x + 1;
+                     index < row * stride + x + w - 1; index++) {
+                    if (iterations[index] != IterationField.UNKNOWN) {
+                        continue;
+                    }
+                    iterations[index] = value;
+                    if (fractions != null) {
+                        fractions[index] = 0f;
+                    }
+                }
+            }
+            return true;
+        }
+
+        if (w >= h) {
+            int half = w / 2;
+            return subdivide(job, stride, iterations,
+                    x, y, half + 1, h)
+                && subdivide(job, stride, iterations,
+                    x + half, y, w - half, h);
+        }
+        int half = h / 2;
+        return subdivide(job, stride, iterations,
+                x, y, w, half + 1)
+            && subdivide(job, stride, iterations,
+                x, y + half, w, h - half);
+    }
+
+    /**
+     * Вычисляет один пиксель, если он еще неизвестен.
+     */
+    private static void computeCell(RenderJob job, int stride,
+        int[] iterations, int col, int row)
+    {
+        int index = row * stride + col;
+        if (iterations[index] == IterationField.UNKNOWN) {
+            job.computePixel(col, row);
+        }
+    }
+
+    /**
+     * Проверяет, что все пиксели границы прямоугольника одинаковы.
+     */
+    private static boolean isBorderUniform(int stride, int[] iterations,
+        int x, int y, int w, int h)
+    {
+        int value = iterations[y * stride + x];
+        int top = y * stride;
+        int bottom = (y + h - 1) * stride;
+        for (int col = x; col < x + w; col++) {
+            if (iterations[top + col] != value
+                || iterations[bottom + col] != value) {
+                return false;
+            }
+        }
+        for (int row = y + 1; row < y + h - 1; row++) {
+            if (iterations[row * stride + x] != value
+                || iterations[row * stride + x + w - 1] != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
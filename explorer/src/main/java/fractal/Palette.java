@@ -0,0 +1,14 @@
+package fractal;
+
+/**
+ * Палитра раскраски фрактала: цвет для каждого числа итераций.
+ * Палитра вызывается только при построении таблицы цветов ColorMap,
+ * поэтому может быть сколь угодно медленной.
+ */
+public interface Palette
+{
+    /**
+     * Цвет RGB для точки, покинувшей область за iteration итераций.
+     */
+    int color(int iteration);
+}
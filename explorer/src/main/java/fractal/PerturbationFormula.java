@@ -0,0 +1,39 @@
+package fractal;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Итерационная функция, которую можно считать методом возмущений: одна
+ * опорная орбита Z вычисляется с произвольной точностью, а для каждого
+ * пикселя c = C + dc итерируется только малое отклонение d = z - Z
+ * в double. Так изображение остается четким там, где сами координаты
+ * пикселей в double уже неразличимы.
+ */
+public interface PerturbationFormula
+{
+    /**
+     * Один шаг опорной орбиты с точностью mc: заменяет z[0] + i z[1]
+     * следующей точкой орбиты точки cx + i cy.
+     */
+    void referenceStep(BigDecimal[] z, BigDecimal cx, BigDecimal cy,
+        MathContext mc);
+
+    /**
+     * Итерирует отклонение (dx, dy) пикселя с отклонением (dcx, dcy) от
+     * опорной точки, начиная с итерации start, до предела итераций
+     * орбиты orbit.maxIterations. Если отклонение становится
+     * больше самой точки орбиты или опорная орбита заканчивается, отклонение
+     * переносится на начало опорной орбиты. Возвращает число итераций, как
+     * FractalGenerator.numIterations, и, если fractions не null, записывает
+     * дробную часть в fractions[index].
+     */
+    int iterateDelta(ReferenceOrbit orbit, int start, double dx, double dy,
+        double dcx, double dcy, float[] fractions, int index);
+
+    /**
+     * Подходит ли для формулы ряд для z^2 + c, которым ReferenceOrbit
+     * пропускает первые итерации.
+     */
+    boolean supportsSeries();
+}
@@ -0,0 +1,140 @@
+package fractal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Потоковый кодировщик PNG: изображение записывается построчно сверху
+ * вниз, и в памяти держится только буфер сжатия, а не весь кадр.
+ * Пишется 8-битный RGB без прозрачности; каждая строка кодируется
+ * фильтром Sub, который хорошо подходит для плавных градиентов фрактала.
+ */
+public final class PngStreamWriter implements Closeable
+{
+    private static final byte[] SIGNATURE = {
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'
+    };
+
+    /** Тип фильтра строки Sub: разность с пикселем слева. **/
+    private static final int FILTER_SUB = 1;
+
+    /** Размер данных одного блока IDAT. **/
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+
+    /** Строка в формате PNG: байт фильтра и RGB каждого пикселя. **/
+    private final byte[] scanline;
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+    private final CRC32 crc = new CRC32();
+
+    private int rowsWritten;
+
+    /**
+     * Пишет сигнатуру и заголовок изображения width x height; level -
+     * уровень сжатия Deflater от 0 до 9.
+     */
+    public PngStreamWriter(OutputStream out, int width, int height, int level)
+        throws IOException
+    {
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.deflater = new Deflater(level);
+        this.scanline = new byte[1 + 3 * width];
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;
+        header[9] = 2;
+        writeChunk("IHDR", header, header.length);
+    }
+
+    /**
+     * Записывает очередную строку изображения из rgb, начиная с offset.
+     */
+    public void writeRow(int[] rgb, int offset) throws IOException
+    {
+        if (rowsWritten == height) {
+            throw new IllegalStateException("все строки уже записаны");
+        }
+        scanline[0] = FILTER_SUB;
+        int previous = 0;
+        for (int i = 0, j = 1; i < width; i++, j += 3) {
+            int color = rgb[offset + i];
+            scanline[j] = (byte) ((color >> 16) - (previous >> 16));
+            scanline[j + 1] = (byte) ((color >> 8) - (previous >> 8));
+            scanline[j + 2] = (byte) (color - previous);
+            previous = color;
+        }
+        deflater.setInput(scanline);
+        while (!deflater.needsInput()) {
+            drain(Deflater.NO_FLUSH);
+        }
+        rowsWritten++;
+    }
+
+    /**
+     * Дописывает остаток сжатых данных и завершающий блок. Поток out
+     * не закрывается.
+     */
+    public void close() throws IOException
+    {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("записано " + rowsWritten
+                + " строк из " + height);
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            drain(Deflater.NO_FLUSH);
+        }
+        deflater.end();
+        writeChunk("IEND", buffer, 0);
+        out.flush();
+    }
+
+    /**
+     * Забирает готовые сжатые данные из Deflater и пишет их блоком IDAT.
+     */
+    private void drain(int flush) throws IOException
+    {
+        int length = deflater.deflate(buffer, 0, buffer.length, flush);
+        if (length > 0) {
+            writeChunk("IDAT", buffer, length);
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length)
+        throws IOException
+    {
+        byte[] prefix = new byte[8];
+        putInt(prefix, 0, length);
+        for (int i = 0; i < 4; i++) {
+            prefix[4 + i] = (byte) type.charAt(i);
+        }
+        crc.reset();
+        crc.update(prefix, 4, 4);
+        crc.update(data, 0, length);
+        out.write(prefix);
+        out.write(data, 0, length);
+        byte[] checksum = new byte[4];
+        putInt(checksum, 0, (int) crc.getValue());
+        out.write(checksum);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value)
+    {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
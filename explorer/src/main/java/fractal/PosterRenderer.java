@@ -0,0 +1,253 @@
+package fractal;
+
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Рендеринг больших изображений без окна, например плакатов 32k x 32k.
+ * Изображение делится на полосы по BAND_HEIGHT строк, полосы считаются
+ * параллельно, а готовые строки по порядку передаются в PngStreamWriter.
+ * Одновременно в памяти находится не больше нескольких полос на поток,
+ * поэтому расход памяти зависит от ширины изображения, а не от площади.
+ * <p>
+ * Запуск:
+ * <pre>
+ * java PosterRenderer генератор ширина высота файл.png [параметры]
+ *   генератор      mandelbrot, tricorn или burningship
+ *   --range=x,y,w,h   область плоскости; по умолчанию начальная область
+ *                     генератора, растянутая под пропорции изображения
+ *   --palette=имя     HUE, FIRE или GRAY
+ *   --smooth          плавная раскраска
+ *   --compression=N   уровень сжатия от 0 до 9, по умолчанию 1
+ * </pre>
+ * По завершении печатаются скорость в мегапикселях в секунду и пиковый
+ * объем кучи.
+ */
+public class PosterRenderer
+{
+    /** Высота полосы изображения в строках. **/
+    public static final int BAND_HEIGHT = 16;
+
+    /** Сколько полос на поток может считаться впрок. **/
+    private static final int BANDS_PER_THREAD = 2;
+
+    private final FractalGenerator fractal;
+    private final Rectangle2D.Double range;
+    private final int width;
+    private final int height;
+    private final ColorMap colors;
+
+    public PosterRenderer(FractalGenerator fractal, Rectangle2D.Double range,
+        int width, int height, ColorMap colors)
+    {
+        this.fractal = fractal;
+        this.range = range;
+        this.width = width;
+        this.height = height;
+        this.colors = colors;
+    }
+
+    /**
+     * Считает изображение в threads потоков и пишет его в out как PNG.
+     */
+    public void render(OutputStream out, int threads, int compression)
+        throws IOException, InterruptedException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (PngStreamWriter png = new PngStreamWriter(out, width, height,
+            compression)) {
+            ArrayDeque<Future<int[]>> pending = new ArrayDeque<Future<int[]>>();
+            int window = threads * BANDS_PER_THREAD;
+            int nextBand = 0;
+            for (int row = 0; row < height; row += BAND_HEIGHT) {
+                /** держим в работе не больше window полос. */
+                while (pending.size() < window && nextBand < height) {
+                    final int first = nextBand;
+                    pending.add(executor.submit(() -> computeBand(first)));
+                    nextBand += BAND_HEIGHT;
+                }
+                int[] band = pending.remove().get();
+                int rows = Math.min(BAND_HEIGHT, height - row);
+                for (int i = 0; i < rows; i++) {
+                    png.writeRow(band, i * width);
+                }
+            }
+        }
+        catch (ExecutionException e) {
+            throw new IOException("ошибка при вычислении полосы", e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Вычисляет и раскрашивает полосу, начинающуюся со строки first.
+     */
+    private int[] computeBand(int first)
+    {
+        int rows = Math.min(BAND_HEIGHT, height - first);
+        int[] rgb = new int[rows * width];
+        int[] iterations = new int[width];
+        float[] fractions = colors.smooth ? new float[width] : null;
+        double xMax = range.x + range.width;
+        for (int i = 0; i < rows; i++) {
+            double y = FractalGenerator.getCoord(range.y,
+                range.y + range.height, height, first + i);
+            if (fractions != null) {
+                fractal.computeRowSmooth(range.x, xMax, width, 0, y,
+                    iterations, fractions, 0, width);
+            }
+            else {
+                fractal.computeRow(range.x, xMax, width, 0, y, iterations,
+                    0, width);
+            }
+            int offset = i * width;
+            for (int col = 0; col < width; col++) {
+                rgb[offset + col] = colors.color(iterations[col],
+                    fractions != null ? fractions[col] : 0f);
+            }
+        }
+        return rgb;
+    }
+
+    /**
+     * Пиковый объем всех областей кучи с момента запуска, в байтах.
+     */
+    private static long peakHeapUsage()
+    {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Генератор по имени из командной строки.
+     */
+    static FractalGenerator generator(String name)
+    {
+        switch (name.toLowerCase()) {
+            case "mandelbrot":
+                return new Mandelbrot();
+            case "tricorn":
+                return new Tricorn();
+            case "burningship":
+                return new BurningShip();
+            default:
+                throw new IllegalArgumentException("неизвестный генератор: "
+                    + name);
+        }
+    }
+
+    /**
+     * Растягивает область по одной из осей вокруг ее центра под
+     * пропорции изображения width x height.
+     */
+    static void fitAspect(Rectangle2D.Double range, int width, int height)
+    {
+        if (width == height) {
+            return;
+        }
+        double aspect = (double) height / width;
+        double centerY = range.y + range.height / 2;
+        double centerX = range.x + range.width / 2;
+        if (aspect < 1) {
+            range.width = range.height / aspect;
+            range.x = centerX - range.width / 2;
+        }
+        else {
+            range.height = range.width * aspect;
+            range.y = centerY - range.height / 2;
+        }
+    }
+
+    private static void usage()
+    {
+        System.err.println("использование: java PosterRenderer"
+            + " mandelbrot|tricorn|burningship ширина высота файл.png"
+            + " [--range=x,y,w,h] [--palette=HUE|FIRE|GRAY] [--smooth]"
+            + " [--compression=0..9]");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 4) {
+            usage();
+        }
+        FractalGenerator fractal = generator(args[0]);
+        int width = Integer.parseInt(args[1]);
+        int height = Integer.parseInt(args[2]);
+        String file = args[3];
+
+        Rectangle2D.Double range = new Rectangle2D.Double();
+        fractal.getInitialRange(range);
+        boolean rangeGiven = false;
+        Palette palette = StandardPalette.HUE;
+        boolean smooth = false;
+        int compression = 1;
+        for (int i = 4; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--range=")) {
+                String[] parts = arg.substring(8).split(",");
+                if (parts.length != 4) {
+                    usage();
+                }
+                range.setRect(Double.parseDouble(parts[0]),
+                    Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                    Double.parseDouble(parts[3]));
+                rangeGiven = true;
+            }
+            else if (arg.startsWith("--palette=")) {
+                palette = StandardPalette.valueOf(arg.substring(10).toUpperCase());
+            }
+            else if (arg.equals("--smooth")) {
+                smooth = true;
+            }
+            else if (arg.startsWith("--compression=")) {
+                compression = Integer.parseInt(arg.substring(14));
+            }
+            else {
+                usage();
+            }
+        }
+
+        /** Начальную область растягиваем под пропорции изображения. */
+        if (!rangeGiven) {
+            fitAspect(range, width, height);
+        }
+
+        ColorMap colors = new ColorMap(palette, fractal.getMaxIterations(),
+            smooth);
+        PosterRenderer renderer = new PosterRenderer(fractal, range, width,
+            height, colors);
+        int threads = RenderEngine.defaultParallelism();
+
+        long start = System.nanoTime();
+        try (OutputStream out = new BufferedOutputStream(
+            new FileOutputStream(file), 1 << 16)) {
+            renderer.render(out, threads, compression);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double megapixels = (double) width * height / 1e6;
+        System.out.printf("%s: %dx%d, %.1f Мпикс за %.2f с, %.2f Мпикс/с,"
+            + " потоков %d, пиковая куча %.1f Мб%n", file, width, height,
+            megapixels, seconds, megapixels / seconds, threads,
+            peakHeapUsage() / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,185 @@
+package fractal;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Опорная орбита для глубокого увеличения: орбита центра кадра,
+ * вычисленная в BigDecimal и сохраненная в double. Для формулы z^2 + c
+ * дополнительно хранится ряд d = A dc + B dc^2 + C dc^3, который дает
+ * отклонение любого пикселя кадра после seriesSkip итераций, так что эти
+ * итерации пиксели не выполняют.
+ */
+public final class ReferenceOrbit
+{
+    /**
+     * Пиксель меньше стольких единиц последнего разряда координаты
+     * означает, что double уже не различает соседние пиксели.
+     */
+    private static final double DEEP_ZOOM_ULPS = 4096;
+
+    /**
+     * Допустимое отношение последнего члена ряда к первому на краю кадра.
+     */
+    private static final double SERIES_TOLERANCE = 1e-9;
+
+    /** Точки опорной орбиты Z0 = 0, Z1, ... **/
+    public final double[] real;
+    public final double[] imaginary;
+    public final int length;
+
+    /** Предел итераций пикселей, для которого построена орбита. **/
+    public final int maxIterations;
+
+    /** Сколько итераций пропускается рядом; 0, если ряд не используется. **/
+    public final int seriesSkip;
+
+    /** Коэффициенты ряда A, B, C на итерации seriesSkip. **/
+    private final double[] series;
+
+    private ReferenceOrbit(double[] real, double[] imaginary, int length,
+        int maxIterations, int seriesSkip, double[] series)
+    {
+        this.real = real;
+        this.imaginary = imaginary;
+        this.length = length;
+        this.maxIterations = maxIterations;
+        this.seriesSkip = seriesSkip;
+        this.series = series;
+    }
+
+    /**
+     * Нужен ли кадру метод возмущений: генератор его поддерживает,
+     * область лежит на решетке, а пиксель настолько мал, что координаты
+     * соседних пикселей в double почти совпадают. Системное свойство
+     * fractal.deep=false отключает метод возмущений.
+     */
+    public static boolean isNeeded(FractalGenerator fractal,
+        Viewport viewport, int size)
+    {
+        if (!(fractal instanceof PerturbationFormula) || !viewport.isLattice()
+            || !Boolean.parseBoolean(System.getProperty("fractal.deep", "true"))) {
+            return false;
+        }
+        double magnitude = Math.max(
+            Math.max(Math.abs(viewport.x), Math.abs(viewport.x + viewport.width)),
+            Math.max(Math.abs(viewport.y), Math.abs(viewport.y + viewport.height)));
+        double pixel = Math.min(viewport.width, viewport.height) / size;
+        return pixel < DEEP_ZOOM_ULPS * Math.ulp(magnitude);
+    }
+
+    /**
+     * Вычисляет опорную орбиту центрального пикселя (size / 2, size / 2)
+     * кадра размером size и, если формула позволяет, ряд для всего кадра.
+     * Точность BigDecimal растет с уровнем масштаба области.
+     */
+    public static ReferenceOrbit create(PerturbationFormula formula,
+        Viewport viewport, int size, int maxIterations)
+    {
+        int digits = 30 + (int) Math.ceil(Math.max(viewport.level, 0)
+            * Math.log10(2));
+        MathContext mc = new MathContext(digits, RoundingMode.HALF_EVEN);
+        int center = size / 2;
+        BigDecimal cx = viewport.exactX(center, size, mc);
+        BigDecimal cy = viewport.exactY(center, size, mc);
+
+        double[] real = new double[maxIterations + 1];
+        double[] imaginary = new double[maxIterations + 1];
+        BigDecimal[] z = { BigDecimal.ZERO, BigDecimal.ZERO };
+        int length = 1;
+
+        /**
+         * Орбита сохраняется до первой точки, покинувшей круг радиуса 2,
+         * включительно; пиксели, которым нужно больше итераций,
+         * переносятся на ее начало.
+         */
+        while (length <= maxIterations) {
+            formula.referenceStep(z, cx, cy, mc);
+            real[length] = z[0].doubleValue();
+            imaginary[length] = z[1].doubleValue();
+            length++;
+            double modulus = real[length - 1] * real[length - 1]
+                + imaginary[length - 1] * imaginary[length - 1];
+            if (modulus >= 4) {
+                break;
+            }
+        }
+
+        double radius = Math.hypot(viewport.width, viewport.height) / 2;
+        double[] series = new double[6];
+        int skip = formula.supportsSeries()
+            ? approximateSeries(real, imaginary, length, radius, series) : 0;
+        return new ReferenceOrbit(real, imaginary, length, maxIterations, skip,
+            series);
+    }
+
+    /**
+     * Считает коэффициенты ряда вдоль орбиты, пока ряд точен на краю кадра
+     * радиуса radius, и возвращает номер последней такой итерации.
+     * Коэффициенты на этой итерации записываются в series.
+     * Для z^2 + c: A' = 2ZA + 1, B' = 2ZB + A^2, C' = 2ZC + 2AB.
+     */
+    private static int approximateSeries(double[] real, double[] imaginary,
+        int length, double radius, double[] series)
+    {
+        double ar = 0, ai = 0, br = 0, bi = 0, cr = 0, ci = 0;
+        int skip = 0;
+        for (int n = 0; n + 1 < length - 1; n++) {
+            double zr = 2 * real[n];
+            double zi = 2 * imaginary[n];
+            double nar = zr * ar - zi * ai + 1;
+            double nai = zr * ai + zi * ar;
+            double nbr = zr * br - zi * bi + ar * ar - ai * ai;
+            double nbi = zr * bi + zi * br + 2 * ar * ai;
+            double ncr = zr * cr - zi * ci + 2 * (ar * br - ai * bi);
+            double nci = zr * ci + zi * cr + 2 * (ar * bi + ai * br);
+
+            /**
+             * Ряд годится, пока третий член мал по сравнению с первым, а
+             * отклонение заметно меньше точки орбиты и не выводит пиксель
+             * за круг радиуса 2 раньше опорной точки.
+             */
+            double first = Math.hypot(nar, nai) * radius;
+            double third = Math.hypot(ncr, nci) * radius * radius * radius;
+            double orbit = Math.hypot(real[n + 1], imaginary[n + 1]);
+            if (!(third <= SERIES_TOLERANCE * first) || !(4 * first <= orbit)
+                || !(orbit + 2 * first < 2)) {
+                break;
+            }
+            ar = nar; ai = nai;
+            br = nbr; bi = nbi;
+            cr = ncr; ci = nci;
+            skip = n + 1;
+        }
+        series[0] = ar; series[1] = ai;
+        series[2] = br; series[3] = bi;
+        series[4] = cr; series[5] = ci;
+        return skip;
+    }
+
+    /**
+     * Число итераций пикселя с отклонением (dcx, dcy) от опорной точки.
+     * Начальное отклонение берется из ряда, дальше итерирует формула.
+     */
+    public int iterate(PerturbationFormula formula, double dcx, double dcy,
+        float[] fractions, int index)
+    {
+        double dx = 0;
+        double dy = 0;
+        if (seriesSkip > 0) {
+            double dc2r = dcx * dcx - dcy * dcy;
+            double dc2i = 2 * dcx * dcy;
+            double dc3r = dc2r * dcx - dc2i * dcy;
+            double dc3i = dc2r * dcy + dc2i * dcx;
+            dx = series[0] * dcx - series[1] * dcy
+                + series[2] * dc2r - series[3] * dc2i
+                + series[4] * dc3r - series[5] * dc3i;
+            dy = series[0] * dcy + series[1] * dcx
+                + series[2] * dc2i + series[3] * dc2r
+                + series[4] * dc3i + series[5] * dc3r;
+        }
+        return formula.iterateDelta(this, seriesSkip, dx, dy, dcx, dcy,
+            fractions, index);
+    }
+}
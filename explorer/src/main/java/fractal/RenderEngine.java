@@ -0,0 +1,870 @@
+package fractal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+import javax.swing.SwingUtilities;
+
+/**
+ * Движок рендеринга фрактала на основе ForkJoinPool.
+ * Кадр делится на плитки, которые рекурсивно дробятся пополам, пока
+ * у пула есть свободные потоки, поэтому медленные области возле множества
+ * разбираются простаивающими потоками (work stealing). Готовые плитки
+ * передаются в поток обработки событий Swing пачками.
+ * Каждый вызов render отменяет предыдущее задание.
+ * Вычисленные поля итераций сохраняются в кэше плиток, и кадр сначала
+ * заполняется из кэша, а генератор считает только промахи.
+ * Если задана точка фокуса (setFocus), кадр вместо деления пополам
+ * разбирается плитками по удалению от нее, чтобы первой дорисовывалась
+ * область, на которую смотрит пользователь.
+ */
+public class RenderEngine
+{
+    /** Плитка меньше этой площади никогда не делится. **/
+    public static final int MIN_TILE_AREA = 16 * 16;
+
+    /** Плитка больше этой площади делится всегда, даже если пул занят. **/
+    public static final int MAX_TILE_AREA = 64 * 64;
+
+    /**
+     * Если в очереди потока больше задач, чем это число, плитка
+     * не делится дальше: работы для кражи и так достаточно.
+     */
+    private static final int SURPLUS_THRESHOLD = 2;
+
+    /**
+     * Шаг первого, самого грубого прохода прогрессивного режима.
+     * Границы плиток всегда кратны этому числу.
+     */
+    public static final int COARSEST_STEP = 8;
+
+    /**
+     * Сторона плитки при рендеринге от точки фокуса; кратна COARSEST_STEP.
+     * Чем меньше плитка, тем точнее порядок, но тем дороже выбор следующей.
+     */
+    public static final int FOCUS_TILE = 32;
+
+    /** Значение focus, когда точка фокуса не задана. **/
+    private static final long NO_FOCUS = Long.MIN_VALUE;
+
+    /** Пул потоков, вычисляющих плитки. **/
+    private final ForkJoinPool pool;
+
+    /** Счетчик поколений заданий. **/
+    private final AtomicLong generations = new AtomicLong();
+
+    /** Кэш плиток полей итераций всех заданий движка. **/
+    private final TileCache cache;
+
+    /** Метрики кадров движка. **/
+    private final RenderMetrics metrics = new RenderMetrics();
+
+    /** Последнее запущенное задание. **/
+    private volatile RenderJob currentJob;
+
+    /** Сохранять ли z незавершенных пикселей для extend. **/
+    private volatile boolean keepOrbits;
+
+    /** Метка текущего прохода сглаживания. **/
+    private volatile Object supersamplePass;
+
+    /**
+     * Точка фокуса: столбец в старших 32 битах, ряд в младших, или NO_FOCUS.
+     * Одно поле long читается атомарно, поэтому столбец и ряд всегда
+     * относятся к одной и той же точке.
+     */
+    private volatile long focus = NO_FOCUS;
+
+    /**
+     * Создает движок с заданным числом рабочих потоков.
+     */
+    public RenderEngine(int parallelism)
+    {
+        this(parallelism, new TileCache(TileCache.defaultCapacity()));
+    }
+
+    /**
+     * Создает движок с заданным числом рабочих потоков и кэшем плиток.
+     */
+    public RenderEngine(int parallelism, TileCache cache)
+    {
+        pool = new ForkJoinPool(parallelism);
+        this.cache = cache;
+    }
+
+    /**
+     * Создает движок с числом потоков по умолчанию.
+     */
+    public RenderEngine()
+    {
+        this(defaultParallelism());
+    }
+
+    /**
+     * Число потоков по умолчанию: значение системного свойства
+     * fractal.threads или число доступных процессоров.
+     */
+    public static int defaultParallelism()
+    {
+        int threads = Integer.getInteger("fractal.threads",
+            Runtime.getRuntime().availableProcessors());
+        return Math.max(1, threads);
+    }
+
+    /** Кэш плиток движка. **/
+    public TileCache getCache()
+    {
+        return cache;
+    }
+
+    /** Метрики кадров движка; сбор включается через setEnabled. **/
+    public RenderMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Включает сохранение z пикселей, не покинувших область: тогда предел
+     * итераций готового кадра можно поднять методом extend, продолжив их
+     * орбиты. Стоит 16 байт памяти на пиксель кадра.
+     */
+    public void setKeepOrbits(boolean keepOrbits)
+    {
+        this.keepOrbits = keepOrbits;
+    }
+
+    /**
+     * Задает пиксель (col, row) кадра, вокруг которого плитки считаются
+     * в первую очередь: они выдаются потокам по возрастанию расстояния
+     * до него, кольцами по спирали. Фокус можно менять во время
+     * рендеринга: еще не начатые плитки текущего задания сразу
+     * переупорядочиваются, а уже начатые досчитываются.
+     */
+    public void setFocus(int col, int row)
+    {
+        focus = ((long) col << 32) | (row & 0xffffffffL);
+    }
+
+    /**
+     * Снимает точку фокуса; следующие задания снова делят кадр пополам
+     * с кражей работы.
+     */
+    public void clearFocus()
+    {
+        focus = NO_FOCUS;
+    }
+
+    /**
+     * Отменяет текущее задание, останавливает потоки пула и снимает
+     * метрики движка с регистрации в JMX; после этого движок рендерить
+     * не может. Нужен тем, кто создает движки помногу, например
+     * бенчмаркам: иначе потоки каждого пула живут до выхода из JVM,
+     * а бины метрик копятся в MBeanServer.
+     */
+    public void shutdown()
+    {
+        cancelCurrent();
+        pool.shutdownNow();
+        metrics.unregister();
+    }
+
+    /**
+     * Отменяет текущее задание и проход сглаживания, не запуская нового.
+     * Нужен, когда следующий кадр еще готовится (например, подбирается
+     * предел итераций): иначе старый кадр занимает пул и продолжает
+     * отдавать плитки на дисплей.
+     */
+    public void cancelCurrent()
+    {
+        RenderJob running = currentJob;
+        if (running != null) {
+            running.cancel();
+        }
+        cancelSupersample();
+    }
+
+    /** Число рабочих потоков движка. **/
+    public int getParallelism()
+    {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Запускает рендеринг квадратного кадра size x size для заданной
+     * области фрактала и отменяет предыдущее задание. Предел итераций
+     * кадра - тот, для которого построена таблица цветов colors. Кадр
+     * сначала заполняется из кэша плиток, затем из поля previous (может
+     * быть null) переносятся образцы, которые точно совпадают с пикселями
+     * нового кадра; вычисляются только оставшиеся пиксели. Поле с
+     * угаданными значениями (см. IterationField.hasGuesses) используется
+     * только кадром в режиме MARIANI_SILVER. Если previous - поле
+     * текущего задания, образцы переносятся после того, как его задачи
+     * остановятся, но ждать дольше нескольких сотен миллисекунд метод не
+     * будет. Затем он возвращается, а результаты приходят в listener
+     * в потоке обработки событий.
+     */
+    public synchronized RenderJob render(FractalGenerator fractal,
+        Viewport viewport, int size, RenderMode mode, ColorMap colors,
+        IterationField previous, RenderListener listener)
+    {
+        RenderJob job = newJob(fractal, viewport, size, mode, colors);
+        /** заливка отмененного кадра могла появиться уже после отмены **/
+        if (previous != null && mode != RenderMode.MARIANI_SILVER
+            && (!previous.awaitWritten() || previous.hasGuesses())) {
+            previous = null;
+        }
+        job.field.copyAlignedSamples(previous);
+        start(job, listener);
+        return job;
+    }
+
+    /**
+     * Поднимает предел итераций готового кадра поля previous до предела
+     * таблицы colors. Покинувшие область пиксели переносятся как есть,
+     * а орбиты остальных продолжаются с сохраненных z (если движок их
+     * сохранял, см. setKeepOrbits, иначе такие пиксели считаются заново).
+     * Кадры глубокого увеличения досчитывают оставшиеся пиксели заново
+     * с новой опорной орбитой.
+     */
+    public synchronized RenderJob extend(IterationField previous,
+        ColorMap colors, RenderListener listener)
+    {
+        if (colors.maxIterations <= previous.maxIterations) {
+            throw new IllegalArgumentException("new limit " + colors.maxIterations
+                + " is not above " + previous.maxIterations);
+        }
+        RenderJob job = newJob(previous.fractal, previous.viewport,
+            previous.width, RenderMode.FULL, colors);
+        job.field.continueFrom(previous);
+        start(job, listener);
+        return job;
+    }
+
+    /**
+     * Сглаживает готовый кадр job по таблице цветов colors (см.
+     * EdgeSupersampler): краевые пиксели получают до maxGrid x maxGrid
+     * образцов. Плитки со сглаженными цветами приходят в listener, затем
+     * renderFinished с тем же заданием; число образцов на пиксель
+     * возвращает job.getSamplesPerPixel(). Новый проход сглаживания или
+     * новое задание прерывают текущий проход. Кадры глубокого увеличения
+     * не сглаживаются: соседние образцы в double там не различимы.
+     */
+    public synchronized void supersample(RenderJob job, ColorMap colors,
+        int maxGrid, RenderListener listener)
+    {
+        if (job.deepZoom) {
+            throw new IllegalArgumentException("deep zoom frame");
+        }
+        Object pass = new Object();
+        supersamplePass = pass;
+        EdgeSupersampler sampler = new EdgeSupersampler(job, colors, maxGrid,
+            EdgeSupersampler.THRESHOLD);
+        BooleanSupplier cancelled = () -> job.isCancelled()
+            || supersamplePass != pass;
+
+        /** плитки прерванного прохода не должны перекрыть новые. */
+        RenderListener guarded = new RenderListener() {
+            public void tilesReady(List<Tile> tiles)
+            {
+                if (supersamplePass == pass) {
+                    listener.tilesReady(tiles);
+                }
+            }
+
+            public void renderFinished(RenderJob finished)
+            {
+                if (supersamplePass == pass) {
+                    listener.renderFinished(finished);
+                }
+            }
+        };
+        TileBatcher batcher = new TileBatcher(job, null, null, guarded);
+        job.supersampled = false;
+        job.supersamples.reset();
+
+        pool.execute(() -> {
+            int bands = (job.size + COARSEST_STEP - 1) / COARSEST_STEP;
+            IntStream.range(0, bands).parallel().forEach(band -> {
+                int y = band * COARSEST_STEP;
+                Tile tile = new Tile(0, y, job.size,
+                    Math.min(COARSEST_STEP, job.size - y));
+                long samples = sampler.computeTile(tile, cancelled);
+                if (samples >= 0) {
+                    job.supersamples.add(samples);
+                    batcher.add(tile);
+                }
+            });
+            if (!cancelled.getAsBoolean()) {
+                job.supersampled = true;
+                batcher.finish();
+            }
+        });
+    }
+
+    /** Прерывает текущий проход сглаживания, если он есть. **/
+    public void cancelSupersample()
+    {
+        supersamplePass = null;
+    }
+
+    /**
+     * Выбирает предел итераций для кадра (см. IterationBudget.choose).
+     * Пробные образцы считаются в пуле движка; метод возвращается сразу,
+     * а предел приходит в возвращенное будущее в потоке пула.
+     */
+    public CompletableFuture<Integer> chooseIterations(FractalGenerator fractal,
+        Viewport viewport, int size)
+    {
+        return CompletableFuture.supplyAsync(
+            () -> IterationBudget.choose(fractal, viewport, size), pool);
+    }
+
+    /**
+     * Отменяет текущее задание и создает следующее, заполненное из кэша.
+     */
+    private RenderJob newJob(FractalGenerator fractal, Viewport viewport,
+        int size, RenderMode mode, ColorMap colors)
+    {
+        RenderJob running = currentJob;
+        if (running != null) {
+            running.cancel();
+        }
+
+        RenderJob job = new RenderJob(generations.incrementAndGet(),
+            fractal, viewport, size, mode, colors, keepOrbits);
+        job.metrics = metrics.startFrame(pool.getParallelism());
+        currentJob = job;
+        cache.fill(job.field);
+        return job;
+    }
+
+    /**
+     * Запускает корневую задачу задания в пуле.
+     */
+    private void start(RenderJob job, RenderListener listener)
+    {
+        TileBatcher batcher = new TileBatcher(job, cache, metrics, listener);
+        int step = (job.mode == RenderMode.PROGRESSIVE) ? COARSEST_STEP : 1;
+        if (focus != NO_FOCUS) {
+            new FocusQueue(this, job, batcher, step).start();
+            return;
+        }
+        pool.execute(new TileTask(null, job, batcher, step,
+            0, 0, job.size, job.size));
+    }
+
+    /**
+     * Строит таблицу цветов (см. ColorMap) в пуле движка: при пределе
+     * в миллион итераций в ней столько же цветов палитры.
+     */
+    public CompletableFuture<ColorMap> createColorMap(Palette palette,
+        int maxIterations, boolean smooth)
+    {
+        return CompletableFuture.supplyAsync(
+            () -> new ColorMap(palette, maxIterations, smooth), pool);
+    }
+
+    /**
+     * Раскрашивает сохраненное поле итераций в массив rgb заново, не
+     * пересчитывая фрактал. Ряды раскрашиваются параллельно в пуле движка;
+     * массив заполнен, когда завершится возвращенное будущее.
+     */
+    public CompletableFuture<Void> recolor(IterationField field,
+        ColorMap colors, int[] rgb)
+    {
+        return CompletableFuture.runAsync(() -> colors.apply(field, rgb), pool);
+    }
+
+    /**
+     * Вычисляет число итераций для пикселей плитки способом, заданным
+     * в задании, записывает их в поле итераций кадра и раскрашивает плитку.
+     * В прогрессивном режиме step - шаг текущего прохода; каждый пиксель
+     * плитки получает цвет ближайшего уже вычисленного образца слева сверху.
+     * Возвращает false, если задание было отменено и плитка осталась
+     * недосчитанной.
+     */
+    private static boolean computeTile(RenderJob job, Tile tile, int step)
+    {
+        boolean complete;
+        switch (job.mode) {
+            case MARIANI_SILVER:
+                complete = MarianiSilver.computeTile(job, tile.x, tile.y,
+                    tile.width, tile.height);
+                break;
+            case PROGRESSIVE:
+                complete = computeSamples(job, tile, step);
+                break;
+            default:
+                complete = computeRows(job, tile);
+                break;
+        }
+        if (!complete) {
+            return false;
+        }
+        job.acquireMirrored();
+
+        /** Раскрасить плитку по таблице цветов задания. **/
+        IterationField field = job.field;
+        ColorMap colors = job.colors;
+        int size = job.size;
+        int index = 0;
+        for (int row = tile.y; row < tile.y + tile.height; row++) {
+            int sampleRow = (row - row % step) * size;
+            for (int col = tile.x; col < tile.x + tile.width; col++) {
+                tile.rgb[index++] = colors.color(field,
+                    sampleRow + col - col % step);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Вычисляет число итераций для каждого еще неизвестного пикселя
+     * плитки; непрерывные отрезки ряда считаются одним вызовом
+     * FractalGenerator.computeRow.
+     */
+    private static boolean computeRows(RenderJob job, Tile tile)
+    {
+        for (int row = tile.y; row < tile.y + tile.height; row++) {
+            if (job.isCancelled()) {
+                return false;
+            }
+            job.computeMissing(row, tile.x, tile.x + tile.width);
+        }
+        return true;
+    }
+
+    /**
+     * Вычисляет образцы прогрессивного прохода с шагом step: пиксели,
+     * у которых обе координаты кратны step. Образцы, кратные 2 * step,
+     * уже вычислены предыдущим проходом и пропускаются, как и образцы,
+     * перенесенные из предыдущего кадра. Плитки выровнены
+     * по COARSEST_STEP, поэтому все образцы плитки лежат внутри нее.
+     */
+    private static boolean computeSamples(RenderJob job, Tile tile, int step)
+    {
+        for (int row = tile.y; row < tile.y + tile.height; row += step) {
+            if (job.isCancelled()) {
+                return false;
+            }
+            boolean coarseRow = step < COARSEST_STEP && row % (2 * step) == 0;
+
+            /** В последнем проходе нечетные ряды считаются целиком. **/
+            if (step == 1 && !coarseRow) {
+                job.computeMissing(row, tile.x, tile.x + tile.width);
+                continue;
+            }
+
+            for (int col = tile.x; col < tile.x + tile.width; col += step) {
+                if (coarseRow && col % (2 * step) == 0) {
+                    continue;
+                }
+                if (!job.field.isKnown(row * job.size + col)) {
+                    job.computePixel(col, row);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Задача, вычисляющая прямоугольную область кадра. Пока область
+     * большая, а у пула мало работы, она делится пополам по длинной
+     * стороне; половина отдается в очередь, где ее может украсть другой поток.
+     * Границы частей кратны COARSEST_STEP.
+     * Корневая задача завершается, когда завершены все ее части; в
+     * прогрессивном режиме она запускает следующий проход с вдвое
+     * меньшим шагом. Части отмененного задания ничего не считают.
+     */
+    private static class TileTask extends CountedCompleter<Void>
+    {
+        private final RenderJob job;
+        private final TileBatcher batcher;
+
+        /** Шаг прогрессивного прохода; 1 в остальных режимах. **/
+        private final int step;
+
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+
+        TileTask(TileTask parent, RenderJob job, TileBatcher batcher,
+            int step, int x, int y, int width, int height)
+        {
+            super(parent);
+            this.job = job;
+            this.batcher = batcher;
+            this.step = step;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public void compute()
+        {
+            int x = this.x;
+            int y = this.y;
+            int width = this.width;
+            int height = this.height;
+
+            if (job.isCancelled()) {
+                tryComplete();
+                return;
+            }
+
+            while (shouldSplit(width * height)) {
+                if (width >= height && width >= 2 * COARSEST_STEP) {
+                    int half = alignedHalf(width);
+                    addToPendingCount(1);
+                    new TileTask(this, job, batcher, step,
+                        x + half, y, width - half, height).fork();
+                    width = half;
+                }
+                else if (height >= 2 * COARSEST_STEP) {
+                    int half = alignedHalf(height);
+                    addToPendingCount(1);
+                    new TileTask(this, job, batcher, step,
+                        x, y + half, width, height - half).fork();
+                    height = half;
+                }
+                else {
+                    break;
+                }
+            }
+
+            Tile tile = new Tile(x, y, width, height);
+            FrameMetrics metrics = job.metrics;
+            long start = (metrics != null) ? metrics.tileStarted() : 0;
+            boolean complete = computeTile(job, tile, step);
+            if (metrics != null) {
+                metrics.tileFinished(start);
+            }
+            if (complete) {
+                batcher.add(tile);
+            }
+            tryComplete();
+        }
+
+        /**
+         * Половина длины, округленная вниз до кратного COARSEST_STEP.
+         */
+        private static int alignedHalf(int length)
+        {
+            return (length / 2) / COARSEST_STEP * COARSEST_STEP;
+        }
+
+        /**
+         * Решает, нужно ли делить область дальше.
+         */
+        private static boolean shouldSplit(int area)
+        {
+            if (area <= MIN_TILE_AREA) {
+                return false;
+            }
+            return area > MAX_TILE_AREA
+                || getSurplusQueuedTaskCount() <= SURPLUS_THRESHOLD;
+        }
+
+        @Override
+        public void onCompletion(CountedCompleter<?> caller)
+        {
+            if (getCompleter() != null) {
+                return;
+            }
+            if (step > 1 && !job.isCancelled()) {
+                new TileTask(null, job, batcher, step / 2,
+                    0, 0, job.size, job.size).fork();
+            }
+            else {
+                batcher.finish();
+            }
+        }
+    }
+
+    /**
+     * Проход кадра, плитки которого выдаются по удалению от точки фокуса
+     * движка. Кадр заранее режется на квадраты FOCUS_TILE, и в пул
+     * ставится по одной задаче на поток; каждая задача (FocusStep)
+     * считает одну ближайшую к фокусу из оставшихся плиток и ставит в
+     * пул свое продолжение, как TileTask ставит свои части. Фокус перечитывается при каждой
+     * выдаче, так что его сдвиг меняет порядок только оставшихся плиток.
+     * Плиток в кадре несколько сотен, поэтому ближайшая ищется перебором
+     * под блокировкой, без кучи, которую пришлось бы перестраивать при
+     * каждом сдвиге фокуса; углы плиток вокруг фокуса пересчитываются
+     * только при его сдвиге. Последняя завершившаяся задача запускает
+     * следующий прогрессивный проход или завершает кадр, как корневая
+     * TileTask.
+     */
+    private static class FocusQueue
+    {
+        private final RenderEngine engine;
+        private final RenderJob job;
+        private final TileBatcher batcher;
+        private final int step;
+
+        /** Еще не выданные плитки, в порядке рядов. **/
+        private final List<Tile> remaining = new ArrayList<Tile>();
+
+        /**
+         * Угол центра каждой плитки из remaining вокруг фокуса angleFocus;
+         * элементы переставляются вместе с плитками.
+         */
+        private final double[] angles;
+        private long angleFocus = NO_FOCUS;
+
+        /** Число задач прохода, которые еще берут плитки. **/
+        private final AtomicInteger workers;
+
+        FocusQueue(RenderEngine engine, RenderJob job, TileBatcher batcher,
+            int step)
+        {
+            this.engine = engine;
+            this.job = job;
+            this.batcher = batcher;
+            this.step = step;
+            int size = job.size;
+            for (int y = 0; y < size; y += FOCUS_TILE) {
+                for (int x = 0; x < size; x += FOCUS_TILE) {
+                    remaining.add(new Tile(x, y, Math.min(FOCUS_TILE, size - x),
+                        Math.min(FOCUS_TILE, size - y)));
+                }
+            }
+            angles = new double[remaining.size()];
+            workers = new AtomicInteger(Math.min(
+                engine.pool.getParallelism(), remaining.size()));
+        }
+
+        void start()
+        {
+            for (int i = workers.get(); i > 0; i--) {
+                engine.pool.execute(new FocusStep(this));
+            }
+        }
+
+        /**
+         * Считает одну плитку и возвращает true. Если плиток не осталось
+         * или задание отменено, возвращает false; последняя из задач
+         * прохода при этом решает, что делать дальше.
+         */
+        boolean work()
+        {
+            Tile tile = job.isCancelled() ? null : next();
+            if (tile != null) {
+                FrameMetrics metrics = job.metrics;
+                long start = (metrics != null) ? metrics.tileStarted() : 0;
+                boolean complete = computeTile(job, tile, step);
+                if (metrics != null) {
+                    metrics.tileFinished(start);
+                }
+                if (complete) {
+                    batcher.add(tile);
+                }
+                return true;
+            }
+            if (workers.decrementAndGet() > 0) {
+                return false;
+            }
+            if (step > 1 && !job.isCancelled()) {
+                new FocusQueue(engine, job, batcher, step / 2).start();
+            }
+            else {
+                batcher.finish();
+            }
+            return false;
+        }
+
+        /**
+         * Удаляет из очереди и возвращает плитку, центр которой ближе
+         * всего к фокусу, или null, если плиток не осталось. Из плиток
+         * на равном расстоянии выбирается та, что раньше по углу вокруг
+         * фокуса, поэтому кольцо обходится по кругу. Если фокус снят,
+         * плитки берутся с начала списка.
+         */
+        private synchronized Tile next()
+        {
+            int count = remaining.size();
+            if (count == 0) {
+                return null;
+            }
+            long focus = engine.focus;
+            if (focus == NO_FOCUS) {
+                /** сдвиг списка сбивает углы; их пересчитает новый фокус **/
+                angleFocus = NO_FOCUS;
+                return remaining.remove(0);
+            }
+
+            /** центры и фокус удвоены, чтобы остаться в целых **/
+            long focusX = 2 * (focus >> 32);
+            long focusY = 2 * (int) focus;
+            if (focus != angleFocus) {
+                for (int i = 0; i < count; i++) {
+                    Tile tile = remaining.get(i);
+                    angles[i] = Math.atan2(2 * tile.y + tile.height - focusY,
+                        2 * tile.x + tile.width - focusX);
+                }
+                angleFocus = focus;
+            }
+            int best = 0;
+            long bestDistance = Long.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                Tile tile = remaining.get(i);
+                long dx = 2 * tile.x + tile.width - focusX;
+                long dy = 2 * tile.y + tile.height - focusY;
+                long distance = dx * dx + dy * dy;
+                if (distance < bestDistance || (distance == bestDistance
+                    && angles[i] < angles[best])) {
+                    best = i;
+                    bestDistance = distance;
+                }
+            }
+
+            /** последняя плитка встает на место выданной **/
+            Tile tile = remaining.get(best);
+            remaining.set(best, remaining.get(count - 1));
+            angles[best] = angles[count - 1];
+            remaining.remove(count - 1);
+            return tile;
+        }
+    }
+
+    /**
+     * Одна задача прохода FocusQueue: плитка, затем продолжение. Поток
+     * пула выполняет задачи из своей очереди, пока она не опустеет,
+     * поэтому между плитками задача перекладывает в эту очередь одну
+     * задачу, поставленную в пул извне (подбор предела, перекраску,
+     * сглаживание), - иначе та ждала бы конца прохода.
+     */
+    private static class FocusStep extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final FocusQueue queue;
+
+        FocusStep(FocusQueue queue)
+        {
+            this.queue = queue;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (!queue.work()) {
+                return;
+            }
+            new FocusStep(queue).fork();
+
+            /** очередь потока работает как стек: чужая задача пойдет первой **/
+            ForkJoinTask<?> submission = pollSubmission();
+            if (submission != null) {
+                submission.fork();
+            }
+        }
+    }
+
+    /**
+     * Собирает готовые плитки и передает их в поток обработки событий
+     * пачками: пока предыдущая пачка не разобрана, новые плитки копятся
+     * в очереди, и в EDT ставится не больше одной задачи одновременно.
+     * Плитки отмененного задания выбрасываются, не доходя до listener.
+     * Когда задачи задания завершены, поле итераций отмечается как
+     * дописанное, так что следующие кадры могут брать из него образцы, и
+     * сохраняется в кэш, если задание не отменено и в поле нет угаданных значений
+     * Мариани-Силвера: в кэш попадают только вычисленные пиксели.
+     * Проход сглаживания передает вместо кэша null: поле готового кадра
+     * он только читает, и отмечать или сохранять его заново незачем.
+     * Первая показанная пачка и завершение кадра отмечаются в метриках,
+     * если они переданы.
+     */
+    private static class TileBatcher implements Runnable
+    {
+        private final RenderJob job;
+        private final TileCache cache;
+        private final RenderMetrics metrics;
+        private final RenderListener listener;
+        private final ConcurrentLinkedQueue<Tile> queue =
+            new ConcurrentLinkedQueue<Tile>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private volatile boolean finished;
+        private boolean reported;
+
+        TileBatcher(RenderJob job, TileCache cache, RenderMetrics metrics,
+            RenderListener listener)
+        {
+            this.job = job;
+            this.cache = cache;
+            this.metrics = metrics;
+            this.listener = listener;
+        }
+
+        void add(Tile tile)
+        {
+            queue.add(tile);
+            schedule();
+        }
+
+        void finish()
+        {
+            if (cache != null) {
+                job.field.finishWriting();
+                if (!job.isCancelled() && !job.field.hasGuesses()) {
+                    cache.store(job.field);
+                }
+            }
+            finished = true;
+            schedule();
+        }
+
+        private void schedule()
+        {
+            if (scheduled.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(this);
+            }
+        }
+
+        /** Выполняется в потоке обработки событий. **/
+        public void run()
+        {
+            scheduled.set(false);
+
+            if (job.isCancelled()) {
+                queue.clear();
+                return;
+            }
+
+            List<Tile> tiles = new ArrayList<Tile>();
+            Tile tile;
+            while ((tile = queue.poll()) != null) {
+                tiles.add(tile);
+            }
+            FrameMetrics frame = (metrics != null) ? job.metrics : null;
+            if (!tiles.isEmpty()) {
+                listener.tilesReady(tiles);
+                if (frame != null) {
+                    frame.firstPixel();
+                }
+            }
+
+            if (finished && queue.isEmpty() && !reported) {
+                reported = true;
+                if (frame != null) {
+                    metrics.frameFinished(frame);
+                }
+                listener.renderFinished(job);
+            }
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package fractal;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Одно задание рендеринга кадра. Хранит снимок области, генератор и
+ * номер поколения. Новое задание отменяет все задания старших поколений:
+ * их плитки перестают считаться и никогда не попадают на дисплей.
+ */
+public final class RenderJob
+{
+    /** Номер поколения; у более нового задания номер больше. **/
+    public final long generation;
+
+    public final FractalGenerator fractal;
+    public final Viewport viewport;
+
+    /** Ширина и высота кадра в пикселях. **/
+    public final int size;
+
+    public final RenderMode mode;
+
+    /** Таблица цветов, которой раскрашиваются плитки. **/
+    public final ColorMap colors;
+
+    /**
+     * Поле итераций кадра. Дробные части в нем есть, только если
+     * таблица цветов плавная.
+     */
+    public final IterationField field;
+
+    /**
+     * Считается ли кадр методом возмущений; опорная орбита вычисляется
+     * при первом обращении первым из рабочих потоков.
+     */
+    public final boolean deepZoom;
+    private volatile ReferenceOrbit orbit;
+
+    /**
+     * Для каждого ряда кадра - ряд, зеркальный ему относительно
+     * вещественной оси, или -1; null, если симметрия не используется
+     * (генератор не симметричен, кадр глубокого увеличения, режим
+     * Мариани-Силвера, где заливка не должна зависеть от скопированных
+     * пикселей, или -Dfractal.symmetry=false).
+     */
+    private final int[] mirrorRows;
+
+    /** Сколько пикселей действительно было вычислено генератором. **/
+    private final LongAdder computedPixels = new LongAdder();
+
+    /** Сколько пикселей скопировано из зеркальных рядов. **/
+    private final LongAdder mirroredPixels = new LongAdder();
+
+    /**
+     * Дополнительные образцы последнего прохода сглаживания
+     * (RenderEngine.supersample) и признак его завершения.
+     */
+    final LongAdder supersamples = new LongAdder();
+    volatile boolean supersampled;
+
+    private volatile boolean cancelled;
+
+    /**
+     * Измерения кадра; null, если сбор метрик выключен. Задается движком
+     * до запуска задач.
+     */
+    FrameMetrics metrics;
+
+    RenderJob(long generation, FractalGenerator fractal, Viewport viewport,
+        int size, RenderMode mode, ColorMap colors)
+    {
+        this(generation, fractal, viewport, size, mode, colors, false);
+    }
+
+    /**
+     * Создает задание с пределом итераций таблицы цветов colors; если
+     * keepOrbits, поле сохраняет z пикселей, оставшихся в области.
+     */
+    RenderJob(long generation, FractalGenerator fractal, Viewport viewport,
+        int size, RenderMode mode, ColorMap colors, boolean keepOrbits)
+    {
+        this.generation = generation;
+        this.fractal = fractal;
+        this.viewport = viewport;
+        this.size = size;
+        this.mode = mode;
+        this.colors = colors;
+        this.field = new IterationField(fractal, viewport, size, size,
+            colors.maxIterations, colors.smooth, keepOrbits);
+        /** в поле пишут задачи пула, пока не будет вызван finishWriting **/
+        field.beginWriting();
+        this.deepZoom = ReferenceOrbit.isNeeded(fractal, viewport, size);
+        this.mirrorRows = (deepZoom || mode == RenderMode.MARIANI_SILVER
+            || !fractal.isSymmetricAboutRealAxis()
+            || !Boolean.parseBoolean(System.getProperty("fractal.symmetry",
+                "true"))) ? null : mirrorRows(viewport, size);
+    }
+
+    /**
+     * Находит пары рядов, симметричных относительно вещественной оси:
+     * ряд m зеркален ряду row, если координата m, посчитанная как
+     * Viewport.yCoord, в точности равна -yCoord(row). Ряды, у которых
+     * зеркальная координата не попала на решетку пикселей, считаются
+     * обычным образом. Возвращает null, если пар нет.
+     */
+    private static int[] mirrorRows(Viewport viewport, int size)
+    {
+        if (viewport.y > 0 || viewport.y + viewport.height < 0) {
+            return null;
+        }
+        int[] rows = new int[size];
+        Arrays.fill(rows, -1);
+        boolean found = false;
+        for (int row = 0; row < size; row++) {
+            double y = viewport.yCoord(row, size);
+            long nearest = Math.round((-y - viewport.y) / viewport.height * size);
+            for (long m = nearest - 1; m <= nearest + 1; m++) {
+                if (m >= 0 && m < size && m != row
+                    && viewport.yCoord((int) m, size) == -y) {
+                    rows[row] = (int) m;
+                    found = true;
+                    break;
+                }
+            }
+        }
+        return found ? rows : null;
+    }
+
+    /**
+     * Вычисляет count пикселей ряда row, начиная со столбца from,
+     * и записывает их в поле итераций.
+     */
+    void computeRow(int row, int from, int count)
+    {
+        if (deepZoom) {
+            computeRowDeep(row, from, count);
+            return;
+        }
+        double xMin = viewport.x;
+        double xMax = viewport.x + viewport.width;
+        double yCoord = viewport.yCoord(row, size);
+        int offset = row * size + from;
+        if (field.resumeFrom > 0) {
+            continueRow(xMin, xMax, yCoord, from, offset, count);
+        }
+        else if (field.isSmooth()) {
+            fractal.computeRowSmooth(xMin, xMax, size, from, yCoord,
+                field.iterations, field.fractions, offset, count,
+                field.maxIterations, field.orbits);
+        }
+        else {
+            fractal.computeRow(xMin, xMax, size, from, yCoord,
+                field.iterations, offset, count, field.maxIterations,
+                field.orbits);
+        }
+        computedPixels.add(count);
+        if (metrics != null) {
+            metrics.rowComputed(field.iterations, offset, count,
+                field.maxIterations);
+        }
+        if (mirrorRows != null && mirrorRows[row] >= 0) {
+            copyMirrored(row, from, count);
+        }
+    }
+
+    /**
+     * Копирует только что вычисленный отрезок ряда row в еще неизвестные
+     * пиксели зеркального ряда; у сохраненных z меняется знак мнимой
+     * части. Поток зеркального ряда может в это время считать те же
+     * пиксели сам, но запишет те же значения. Числа итераций пишутся после
+     * барьера, чтобы поток, увидевший пиксель известным, увидел и его
+     * дробную часть (см. acquireMirrored).
+     */
+    private void copyMirrored(int row, int from, int count)
+    {
+        int source = row * size + from;
+        int target = mirrorRows[row] * size + from;
+        int[] iterations = field.iterations;
+        float[] fractions = field.fractions;
+        double[] orbits = field.orbits;
+        for (int i = 0; i < count; i++) {
+            if (iterations[target + i] != IterationField.UNKNOWN) {
+                continue;
+            }
+            if (fractions != null) {
+                fractions[target + i] = fractions[source + i];
+            }
+            if (orbits != null) {
+                orbits[2 * (target + i)] = orbits[2 * (source + i)];
+                orbits[2 * (target + i) + 1] = -orbits[2 * (source + i) + 1];
+            }
+        }
+        VarHandle.releaseFence();
+        int copied = 0;
+        for (int i = 0; i < count; i++) {
+            if (iterations[target + i] == IterationField.UNKNOWN) {
+                iterations[target + i] = iterations[source + i];
+                copied++;
+            }
+        }
+        mirroredPixels.add(copied);
+    }
+
+    /**
+     * Барьер для потока, который нашел в поле пиксели, скопированные
+     * другим потоком, и собирается читать их дробные части и орбиты.
+     */
+    void acquireMirrored()
+    {
+        if (mirrorRows != null) {
+            VarHandle.acquireFence();
+        }
+    }
+
+    /**
+     * Продолжает орбиты пикселей ряда, не покинувших область с прежним
+     * пределом поля, до нового предела (см. IterationField.continueFrom).
+     */
+    private void continueRow(double xMin, double xMax, double yCoord,
+        int from, int offset, int count)
+    {
+        for (int i = 0; i < count; i++) {
+            double x = FractalGenerator.getCoord(xMin, xMax, size, from + i);
+            field.iterations[offset + i] = fractal.continueIterations(x, yCoord,
+                field.resumeFrom, field.maxIterations, field.orbits, offset + i,
+                field.fractions);
+        }
+    }
+
+    /**
+     * Вычисляет пиксели ряда методом возмущений: каждый пиксель задается
+     * отклонением от центрального пикселя кадра, в котором лежит опорная
+     * орбита.
+     */
+    private void computeRowDeep(int row, int from, int count)
+    {
+        ReferenceOrbit orbit = referenceOrbit();
+        PerturbationFormula formula = (PerturbationFormula) fractal;
+        double pixelWidth = viewport.width / size;
+        double dcy = (row - size / 2) * (viewport.height / size);
+        int offset = row * size + from;
+        for (int i = 0; i < count; i++) {
+            double dcx = (from + i - size / 2) * pixelWidth;
+            field.iterations[offset + i] = orbit.iterate(formula, dcx, dcy,
+                field.fractions, offset + i);
+        }
+        computedPixels.add(count);
+        if (metrics != null) {
+            metrics.rowComputed(field.iterations, offset, count,
+                field.maxIterations);
+        }
+    }
+
+    /**
+     * Опорная орбита кадра; вычисляется один раз.
+     */
+    private ReferenceOrbit referenceOrbit()
+    {
+        ReferenceOrbit result = orbit;
+        if (result == null) {
+            synchronized (this) {
+                result = orbit;
+                if (result == null) {
+                    result = ReferenceOrbit.create((PerturbationFormula) fractal,
+                        viewport, size, field.maxIterations);
+                    orbit = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Вычисляет еще неизвестные пиксели ряда row в диапазоне столбцов
+     * [from, to); непрерывные отрезки считаются одним вызовом computeRow.
+     */
+    void computeMissing(int row, int from, int to)
+    {
+        int base = row * size;
+        int col = from;
+        while (col < to) {
+            if (field.isKnown(base + col)) {
+                col++;
+                continue;
+            }
+            int end = col + 1;
+            while (end < to && !field.isKnown(base + end)) {
+                end++;
+            }
+            computeRow(row, col, end - col);
+            col = end;
+        }
+    }
+
+    /**
+     * Вычисляет один пиксель и записывает его в поле итераций.
+     */
+    void computePixel(int col, int row)
+    {
+        if (field.isSmooth() || deepZoom || field.orbits != null) {
+            computeRow(row, col, 1);
+            return;
+        }
+        computedPixels.increment();
+        int index = row * size + col;
+        field.iterations[index] = fractal.numIterations(
+            viewport.xCoord(col, size), viewport.yCoord(row, size),
+            field.maxIterations);
+        if (metrics != null) {
+            metrics.rowComputed(field.iterations, index, 1,
+                field.maxIterations);
+        }
+        if (mirrorRows != null && mirrorRows[row] >= 0) {
+            copyMirrored(row, col, 1);
+        }
+    }
+
+    /**
+     * Число пикселей, для которых генератор действительно считал итерации.
+     */
+    public long getComputedPixels()
+    {
+        return computedPixels.sum();
+    }
+
+    /**
+     * Число пикселей, скопированных из рядов, зеркальных относительно
+     * вещественной оси, вместо вычисления.
+     */
+    public long getMirroredPixels()
+    {
+        return mirroredPixels.sum();
+    }
+
+    /**
+     * Среднее число образцов на пиксель после прохода сглаживания или 1,
+     * если кадр не сглаживался.
+     */
+    public double getSamplesPerPixel()
+    {
+        if (!supersampled) {
+            return 1;
+        }
+        double pixels = (double) size * size;
+        return (pixels + supersamples.sum()) / pixels;
+    }
+
+    /**
+     * Измерения кадра или null, если при запуске сбор метрик был выключен.
+     */
+    public FrameMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Отменяет задание. Плитки в очереди будут пропущены, а вычисляемые
+     * прервутся на следующем ряду пикселей.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+}
@@ -0,0 +1,20 @@
+package fractal;
+
+import java.util.List;
+
+/**
+ * Получатель результатов движка рендеринга. Все методы вызываются
+ * в потоке обработки событий Swing.
+ */
+public interface RenderListener
+{
+    /**
+     * Вызывается с очередной пачкой готовых плиток.
+     */
+    void tilesReady(List<Tile> tiles);
+
+    /**
+     * Вызывается один раз, когда все плитки кадра доставлены.
+     */
+    void renderFinished(RenderJob job);
+}
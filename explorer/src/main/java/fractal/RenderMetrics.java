@@ -0,0 +1,187 @@
+package fractal;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Сборщик метрик движка рендеринга. Регистрируется в платформенном
+ * MBeanServer как fractal:type=RenderMetrics (второй и следующие движки
+ * получают еще ключ id). Сбор включается свойством fractal.metrics,
+ * флажком в окне или атрибутом Enabled по JMX; когда он выключен,
+ * кадры идут без объекта FrameMetrics и движок ничего не измеряет.
+ */
+public final class RenderMetrics implements RenderMetricsMXBean
+{
+    /** Сколько последних значений хранит каждая гистограмма. **/
+    private static final int WINDOW = 256;
+
+    /** Гистограмма плиток заполняется быстрее, поэтому окно больше. **/
+    private static final int TILE_WINDOW = 4096;
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private volatile boolean enabled = Boolean.getBoolean("fractal.metrics");
+    private final AtomicLong frames = new AtomicLong();
+    private volatile FrameMetrics last;
+
+    /** Имя, под которым метрики зарегистрированы по JMX, или null. **/
+    private volatile ObjectName objectName;
+
+    private final RollingHistogram frameMicros = new RollingHistogram(WINDOW);
+    private final RollingHistogram firstPixelMicros = new RollingHistogram(WINDOW);
+    private final RollingHistogram budgetPerSecond = new RollingHistogram(WINDOW);
+    private final RollingHistogram tileBudget = new RollingHistogram(TILE_WINDOW);
+
+    RenderMetrics()
+    {
+        register();
+    }
+
+    private void register()
+    {
+        int id = instances.getAndIncrement();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("fractal:type=RenderMetrics"
+                + (id == 0 ? "" : ",id=" + id));
+            server.registerMBean(this, name);
+            objectName = name;
+        }
+        catch (JMException | SecurityException e) {
+            /** Без JMX метрики по-прежнему доступны через движок. **/
+        }
+    }
+
+    /**
+     * Снимает регистрацию в MBeanServer; вызывается, когда движок
+     * остановлен, чтобы бины движков-однодневок не копились.
+     */
+    void unregister()
+    {
+        ObjectName name = objectName;
+        objectName = null;
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch (JMException | SecurityException e) {
+            /** бин уже снят или JMX недоступен **/
+        }
+    }
+
+    /**
+     * Начинает измерение кадра; null, если сбор выключен.
+     */
+    FrameMetrics startFrame(int slots)
+    {
+        return enabled ? new FrameMetrics(this, slots) : null;
+    }
+
+    void tileFinished(long budget)
+    {
+        tileBudget.record(budget);
+    }
+
+    void frameFinished(FrameMetrics frame)
+    {
+        frame.finish();
+        frameMicros.record(frame.getFrameNanos() / 1000);
+        firstPixelMicros.record(frame.getFirstPixelNanos() / 1000);
+        budgetPerSecond.record((long) frame.getIterationBudgetPerSecond());
+        frames.incrementAndGet();
+        last = frame;
+    }
+
+    /** Метрики последнего завершенного кадра или null. **/
+    public FrameMetrics getLastFrame()
+    {
+        return last;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public long getFrames()
+    {
+        return frames.get();
+    }
+
+    public double getLastFrameMillis()
+    {
+        FrameMetrics frame = last;
+        return (frame == null) ? 0 : frame.getFrameNanos() / 1e6;
+    }
+
+    public double getLastFirstPixelMillis()
+    {
+        FrameMetrics frame = last;
+        return (frame == null) ? 0 : frame.getFirstPixelNanos() / 1e6;
+    }
+
+    public long getLastIterationBudget()
+    {
+        FrameMetrics frame = last;
+        return (frame == null) ? 0 : frame.getIterationBudget();
+    }
+
+    public double getLastIterationBudgetPerSecond()
+    {
+        FrameMetrics frame = last;
+        return (frame == null) ? 0 : frame.getIterationBudgetPerSecond();
+    }
+
+    public double getLastBoundedShare()
+    {
+        FrameMetrics frame = last;
+        return (frame == null) ? 0 : frame.getBoundedShare();
+    }
+
+    public double[] getLastWorkerBusyShare()
+    {
+        FrameMetrics frame = last;
+        return (frame == null) ? new double[0] : frame.getWorkerBusyShare();
+    }
+
+    public HistogramSnapshot getFrameMicros()
+    {
+        return frameMicros.snapshot();
+    }
+
+    public HistogramSnapshot getFirstPixelMicros()
+    {
+        return firstPixelMicros.snapshot();
+    }
+
+    public HistogramSnapshot getTileIterationBudget()
+    {
+        return tileBudget.snapshot();
+    }
+
+    public HistogramSnapshot getIterationBudgetPerSecond()
+    {
+        return budgetPerSecond.snapshot();
+    }
+
+    public void reset()
+    {
+        frameMicros.clear();
+        firstPixelMicros.clear();
+        budgetPerSecond.clear();
+        tileBudget.clear();
+        frames.set(0);
+        last = null;
+    }
+}
@@ -0,0 +1,49 @@
+package fractal;
+
+/**
+ * Метрики рендеринга движка, доступные через JMX (например, в JConsole)
+ * под именем fractal:type=RenderMetrics. Значения last* относятся к
+ * последнему завершенному кадру, гистограммы - к последним кадрам и
+ * плиткам. Бюджет итераций считает каждый пиксель, оставшийся в
+ * области, по пределу итераций, даже если проверка кардиоиды или поиск
+ * циклов остановили его раньше (см. FrameMetrics). Пока сбор выключен,
+ * движок почти ничего не измеряет.
+ */
+public interface RenderMetricsMXBean
+{
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /** Число кадров, завершенных со включенным сбором. **/
+    long getFrames();
+
+    double getLastFrameMillis();
+
+    double getLastFirstPixelMillis();
+
+    long getLastIterationBudget();
+
+    double getLastIterationBudgetPerSecond();
+
+    /** Доля вычисленных пикселей, не покинувших область. **/
+    double getLastBoundedShare();
+
+    /** Доля времени кадра, которую каждый рабочий поток был занят. **/
+    double[] getLastWorkerBusyShare();
+
+    /** Время кадра в микросекундах по последним кадрам. **/
+    HistogramSnapshot getFrameMicros();
+
+    /** Время до первой показанной плитки в микросекундах. **/
+    HistogramSnapshot getFirstPixelMicros();
+
+    /** Бюджет итераций на плитку по последним плиткам. **/
+    HistogramSnapshot getTileIterationBudget();
+
+    /** Бюджет итераций в секунду по последним кадрам. **/
+    HistogramSnapshot getIterationBudgetPerSecond();
+
+    /** Очищает гистограммы и счетчик кадров. **/
+    void reset();
+}
@@ -0,0 +1,36 @@
+package fractal;
+
+/**
+ * Способ, которым движок рендеринга заполняет плитку кадра.
+ */
+public enum RenderMode
+{
+    /** Число итераций вычисляется для каждого пикселя. **/
+    FULL("все пиксели"),
+
+    /**
+     * Деление прямоугольников Мариани-Силвера: считается только граница
+     * прямоугольника; если она одного цвета, внутренность заливается
+     * без вычислений, иначе прямоугольник делится пополам.
+     */
+    MARIANI_SILVER("Мариани-Силвер"),
+
+    /**
+     * Прогрессивный рендеринг: сначала считается каждый 8-й пиксель и
+     * рисуется блоками, затем проходы с шагом 4, 2 и 1 досчитывают только
+     * новые образцы. Последний проход дает то же изображение, что и FULL.
+     */
+    PROGRESSIVE("прогрессивный");
+
+    private final String title;
+
+    RenderMode(String title)
+    {
+        this.title = title;
+    }
+
+    public String toString()
+    {
+        return title;
+    }
+}
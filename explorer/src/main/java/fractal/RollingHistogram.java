@@ -0,0 +1,55 @@
+package fractal;
+
+import java.util.Arrays;
+
+/**
+ * Скользящая гистограмма: хранит последние capacity значений в кольцевом
+ * буфере, процентили считаются только при запросе снимка.
+ */
+final class RollingHistogram
+{
+    private final long[] values;
+    private int next;
+    private int count;
+
+    RollingHistogram(int capacity)
+    {
+        values = new long[capacity];
+    }
+
+    synchronized void record(long value)
+    {
+        values[next] = value;
+        next = (next + 1) % values.length;
+        if (count < values.length) {
+            count++;
+        }
+    }
+
+    synchronized void clear()
+    {
+        next = 0;
+        count = 0;
+    }
+
+    HistogramSnapshot snapshot()
+    {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(values, count);
+        }
+        if (sorted.length == 0) {
+            return new HistogramSnapshot(0, 0, 0, 0, 0, 0);
+        }
+        Arrays.sort(sorted);
+        return new HistogramSnapshot(sorted.length, sorted[0],
+            percentile(sorted, 0.5), percentile(sorted, 0.9),
+            percentile(sorted, 0.99), sorted[sorted.length - 1]);
+    }
+
+    private static long percentile(long[] sorted, double fraction)
+    {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
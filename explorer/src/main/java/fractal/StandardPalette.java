@@ -0,0 +1,52 @@
+package fractal;
+
+import java.awt.Color;
+
+/**
+ * Встроенные палитры. Они показываются в поле со списком палитр
+ * FractalExplorer.
+ */
+public enum StandardPalette implements Palette
+{
+    /** Исходная раскраска: оттенок растет с числом итераций. **/
+    HUE("радуга") {
+        public int color(int iteration)
+        {
+            float hue = 0.7f + (float) iteration / 200f;
+            return Color.HSBtoRGB(hue, 1f, 1f);
+        }
+    },
+
+    /** Черный - красный - желтый - белый, с периодом 256 итераций. **/
+    FIRE("огонь") {
+        public int color(int iteration)
+        {
+            int t = iteration % 256;
+            int red = Math.min(255, t * 3);
+            int green = Math.max(0, Math.min(255, t * 3 - 255));
+            int blue = Math.max(0, t * 3 - 510);
+            return (red << 16) | (green << 8) | blue;
+        }
+    },
+
+    /** Оттенки серого, с периодом 64 итерации. **/
+    GRAY("серый") {
+        public int color(int iteration)
+        {
+            int level = 64 + (iteration % 64) * 3;
+            return (level << 16) | (level << 8) | level;
+        }
+    };
+
+    private final String title;
+
+    StandardPalette(String title)
+    {
+        this.title = title;
+    }
+
+    public String toString()
+    {
+        return title;
+    }
+}
@@ -0,0 +1,28 @@
+package fractal;
+
+/**
+ * Прямоугольная плитка кадра, вычисленная движком рендеринга.
+ * Хранит координаты плитки на дисплее и цвета её пикселей построчно.
+ */
+public class Tile
+{
+    /** Левый верхний угол плитки в пикселях дисплея. **/
+    public final int x;
+    public final int y;
+
+    /** Размер плитки в пикселях. **/
+    public final int width;
+    public final int height;
+
+    /** Цвета пикселей плитки, строка за строкой (width * height значений). **/
+    public final int[] rgb;
+
+    public Tile(int x, int y, int width, int height)
+    {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.rgb = new int[width * height];
+    }
+}
@@ -0,0 +1,536 @@
+package fractal;
+
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кэш плиток поля итераций, устроенный как пирамида карт: на каждом
+ * уровне решетки (см. Viewport) плоскость разбита на квадратные плитки
+ * TILE_SIZE x TILE_SIZE, и плитка задается генератором, уровнем и своими
+ * номерами по x и y. Плитки хранят числа итераций (и дробные части для
+ * плавной раскраски), а не цвета, поэтому кэш не зависит от палитры.
+ * <p>
+ * Объем кэша ограничен; при превышении выбрасываются плитки, к которым
+ * дольше всего не обращались. Все методы синхронизированы.
+ * <p>
+ * Если задано хранилище TileStore, плитки, которых нет в памяти, ищутся
+ * в нем, а полностью вычисленные плитки сохраняются туда и переживают
+ * перезапуск программы. Запись в хранилище и сброс на диск выполняет
+ * отдельный поток, не держа блокировку кэша, поэтому fill в потоке
+ * обработки событий не ждет диска.
+ */
+public final class TileCache
+{
+    /** Сторона плитки кэша в пикселях решетки, 2^TILE_SHIFT. **/
+    public static final int TILE_SHIFT = 6;
+    public static final int TILE_SIZE = 1 << TILE_SHIFT;
+
+    /** Примерный расход памяти на ключ и запись таблицы. **/
+    private static final int ENTRY_OVERHEAD = 160;
+
+    /** Предельный объем кэша в байтах. **/
+    private final long capacity;
+
+    /** Сколько байт сейчас занимают плитки. **/
+    private long usedBytes;
+
+    /** Плитки в порядке обращения: первой идет самая давняя. **/
+    private final LinkedHashMap<Key, Entry> entries =
+        new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /** Хранилище плиток на диске или null. **/
+    private TileStore store;
+
+    /** Поток записи в хранилище; создается вместе с хранилищем. **/
+    private ExecutorService flusher;
+
+    /**
+     * Создает кэш, занимающий не больше capacity байт.
+     */
+    public TileCache(long capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Объем кэша по умолчанию: системное свойство fractal.cache.mb
+     * в мегабайтах, 64 Мб если оно не задано.
+     */
+    public static long defaultCapacity()
+    {
+        return Long.getLong("fractal.cache.mb", 64) << 20;
+    }
+
+    /**
+     * Подключает хранилище плиток на диске; null отключает его.
+     */
+    public synchronized void setStore(TileStore store)
+    {
+        this.store = store;
+        if (store != null && flusher == null) {
+            flusher = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "tile-store-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** Хранилище плиток на диске или null. **/
+    public synchronized TileStore getStore()
+    {
+        return store;
+    }
+
+    /**
+     * Заполняет еще неизвестные пиксели поля из плиток кэша. Каждая
+     * плитка, которую задевает кадр, считается попаданием или промахом;
+     * промахи ищутся в хранилище, если оно есть. Поля вне решетки не
+     * кэшируются. Возвращает число заполненных пикселей.
+     */
+    public synchronized int fill(IterationField field)
+    {
+        if (!field.viewport.isLattice()) {
+            return 0;
+        }
+        int filled = 0;
+        TileRange tiles = new TileRange(field);
+        for (int row = 0; row < tiles.rows; row++) {
+            for (int col = 0; col < tiles.cols; col++) {
+                Key key = tiles.key(field, col, row);
+                Entry entry = entries.get(key);
+                if (entry == null) {
+                    misses.increment();
+                    filled += readStored(key, field, tiles, col, row);
+                    continue;
+                }
+                hits.increment();
+                filled += copy(entry, field, tiles, col, row, false);
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * Копирует плитку из хранилища в поле. Возвращает число скопированных
+     * пикселей; 0, если хранилища или плитки в нем нет.
+     */
+    private int readStored(Key key, IterationField field, TileRange tiles,
+        int col, int row)
+    {
+        byte[] bytes = (store != null) ? key.toBytes() : null;
+        if (bytes == null) {
+            return 0;
+        }
+        int copied = store.read(bytes, field,
+            tiles.offsetX + col * TILE_SIZE, tiles.offsetY + row * TILE_SIZE);
+        return Math.max(copied, 0);
+    }
+
+    /**
+     * Сохраняет известные пиксели поля в кэш. Плитки, которые кадр
+     * покрывает лишь частично, дополняют уже сохраненные; после записи
+     * лишние плитки выбрасываются по давности обращения. Плитки, ставшие
+     * полностью известными, дописываются в хранилище в фоне. Поле должно
+     * содержать только вычисленные пиксели, поэтому поля с угаданными
+     * значениями (IterationField.hasGuesses) не сохраняются.
+     */
+    public void store(IterationField field)
+    {
+        if (!field.viewport.isLattice() || field.hasGuesses()) {
+            return;
+        }
+        List<Pending> pending = new ArrayList<Pending>();
+        TileStore target;
+        synchronized (this) {
+            target = store;
+            TileRange tiles = new TileRange(field);
+            for (int row = 0; row < tiles.rows; row++) {
+                for (int col = 0; col < tiles.cols; col++) {
+                    Key key = tiles.key(field, col, row);
+                    Entry entry = entries.get(key);
+                    if (entry == null) {
+                        entry = new Entry(field.isSmooth());
+                        if (copy(entry, field, tiles, col, row, true) == 0) {
+                            continue;
+                        }
+                        entries.put(key, entry);
+                        usedBytes += entry.bytes();
+                    }
+                    else {
+                        copy(entry, field, tiles, col, row, true);
+                    }
+                    if (target != null && !entry.stored && entry.isComplete()) {
+                        entry.stored = true;
+                        byte[] bytes = key.toBytes();
+                        if (bytes != null) {
+                            pending.add(new Pending(bytes, entry));
+                        }
+                    }
+                }
+            }
+            evict();
+            if (target == null || pending.isEmpty()) {
+                return;
+            }
+        }
+        flusher.execute(() -> persist(target, pending));
+    }
+
+    /**
+     * Дописывает плитки в хранилище и подтверждает их; выполняется в
+     * потоке записи. Полная плитка больше не меняется, поэтому ее массивы
+     * читаются без блокировки кэша.
+     */
+    private void persist(TileStore target, List<Pending> pending)
+    {
+        try {
+            for (Pending tile : pending) {
+                target.append(tile.key, tile.entry.iterations,
+                    tile.entry.fractions);
+            }
+            target.commit();
+        }
+        catch (IOException | RuntimeException e) {
+            disableStore(target, e);
+        }
+    }
+
+    /**
+     * Ждет, пока поток записи допишет в хранилище все уже переданные
+     * ему плитки, но не дольше timeoutMillis миллисекунд. Возвращает
+     * false, если время вышло.
+     */
+    public boolean flush(long timeoutMillis) throws InterruptedException
+    {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = flusher;
+        }
+        if (executor == null) {
+            return true;
+        }
+        try {
+            executor.submit(() -> { }).get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /** После ошибки записи кэш работает дальше без хранилища. **/
+    private synchronized void disableStore(TileStore failed, Exception e)
+    {
+        if (store != failed) {
+            return;
+        }
+        System.err.println("хранилище плиток отключено: " + e);
+        try {
+            store.close();
+        }
+        catch (IOException ignored) {
+        }
+        store = null;
+    }
+
+    /**
+     * Копирует пиксели пересечения плитки и кадра: из поля в плитку
+     * (toEntry) или из плитки в поле. Копируются только известные пиксели
+     * в еще неизвестные. Возвращает число скопированных пикселей.
+     */
+    private static int copy(Entry entry, IterationField field,
+        TileRange tiles, int col, int row, boolean toEntry)
+    {
+        /** Положение плитки относительно левого верхнего пикселя кадра. **/
+        int tileX = tiles.offsetX + col * TILE_SIZE;
+        int tileY = tiles.offsetY + row * TILE_SIZE;
+        int fromCol = Math.max(0, tileX);
+        int toCol = Math.min(field.width, tileX + TILE_SIZE);
+        int fromRow = Math.max(0, tileY);
+        int toRow = Math.min(field.height, tileY + TILE_SIZE);
+
+        int[] source = toEntry ? field.iterations : entry.iterations;
+        int[] target = toEntry ? entry.iterations : field.iterations;
+        float[] sourceFractions = toEntry ? field.fractions : entry.fractions;
+        float[] targetFractions = toEntry ? entry.fractions : field.fractions;
+
+        int copied = 0;
+        for (int y = fromRow; y < toRow; y++) {
+            int fieldIndex = y * field.width + fromCol;
+            int entryIndex = (y - tileY) * TILE_SIZE + (fromCol - tileX);
+            int from = toEntry ? fieldIndex : entryIndex;
+            int to = toEntry ? entryIndex : fieldIndex;
+            for (int i = 0; i < toCol - fromCol; i++, from++, to++) {
+                if (source[from] == IterationField.UNKNOWN
+                    || target[to] != IterationField.UNKNOWN) {
+                    continue;
+                }
+                target[to] = source[from];
+                if (targetFractions != null) {
+                    targetFractions[to] = sourceFractions[from];
+                }
+                copied++;
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Выбрасывает самые давние плитки, пока кэш не уложится в объем.
+     */
+    private void evict()
+    {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (usedBytes > capacity && iterator.hasNext()) {
+            usedBytes -= iterator.next().getValue().bytes();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    /** Удаляет все плитки; счетчики не сбрасываются. **/
+    public synchronized void clear()
+    {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /** Число плиток, найденных в кэше при заполнении кадров. **/
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /** Число плиток, которых в кэше не оказалось. **/
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /** Число плиток, выброшенных из-за ограничения объема. **/
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    /** Сколько плиток сейчас в кэше. **/
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /** Сколько байт сейчас занимают плитки. **/
+    public synchronized long getUsedBytes()
+    {
+        return usedBytes;
+    }
+
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Плитки решетки, которые задевает кадр: номер первой плитки, число
+     * плиток по осям и смещение первой плитки относительно кадра.
+     */
+    private static final class TileRange
+    {
+        final BigInteger firstCol;
+        final BigInteger firstRow;
+        final int cols;
+        final int rows;
+        final int offsetX;
+        final int offsetY;
+
+        TileRange(IterationField field)
+        {
+            Viewport viewport = field.viewport;
+            firstCol = viewport.originCol.shiftRight(TILE_SHIFT);
+            firstRow = viewport.originRow.shiftRight(TILE_SHIFT);
+            offsetX = firstCol.shiftLeft(TILE_SHIFT)
+                .subtract(viewport.originCol).intValue();
+            offsetY = firstRow.shiftLeft(TILE_SHIFT)
+                .subtract(viewport.originRow).intValue();
+            cols = (field.width - offsetX + TILE_SIZE - 1) / TILE_SIZE;
+            rows = (field.height - offsetY + TILE_SIZE - 1) / TILE_SIZE;
+        }
+
+        Key key(IterationField field, int col, int row)
+        {
+            return new Key(field, firstCol.add(BigInteger.valueOf(col)),
+                firstRow.add(BigInteger.valueOf(row)));
+        }
+    }
+
+    /** Полная плитка, ожидающая записи в хранилище, и ее ключ. **/
+    private static final class Pending
+    {
+        final byte[] key;
+        final Entry entry;
+
+        Pending(byte[] key, Entry entry)
+        {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Данные одной плитки; еще не вычисленные пиксели помечены
+     * IterationField.UNKNOWN.
+     */
+    private static final class Entry
+    {
+        final int[] iterations = new int[TILE_SIZE * TILE_SIZE];
+        final float[] fractions;
+
+        /** Плитка уже передана в хранилище. **/
+        boolean stored;
+
+        Entry(boolean smooth)
+        {
+            java.util.Arrays.fill(iterations, IterationField.UNKNOWN);
+            fractions = smooth ? new float[TILE_SIZE * TILE_SIZE] : null;
+        }
+
+        boolean isComplete()
+        {
+            for (int iteration : iterations) {
+                if (iteration == IterationField.UNKNOWN) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long bytes()
+        {
+            int perPixel = (fractions != null) ? 8 : 4;
+            return (long) TILE_SIZE * TILE_SIZE * perPixel + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * Ключ плитки: генератор, его предел итераций, наличие дробных частей,
+     * решетка (базовый диапазон и размер кадра), уровень и номер плитки.
+     */
+    private static final class Key
+    {
+        /**
+         * Класс генератора или, для скрытых и анонимных классов (формул
+         * пользователя), сам генератор: встроенные генераторы не хранят
+         * состояния, и любые два экземпляра одного класса дают одни плитки.
+         */
+        private final Object generator;
+        private final int maxIterations;
+        private final boolean smooth;
+        private final Rectangle2D.Double base;
+        private final int baseSize;
+        private final int level;
+        private final BigInteger tileCol;
+        private final BigInteger tileRow;
+
+        Key(IterationField field, BigInteger tileCol, BigInteger tileRow)
+        {
+            this.generator = isNamed(field.fractal.getClass())
+                ? field.fractal.getClass() : field.fractal;
+            this.maxIterations = field.maxIterations;
+            this.smooth = field.isSmooth();
+            this.base = field.viewport.getBase();
+            this.baseSize = field.viewport.getBaseSize();
+            this.level = field.viewport.level;
+            this.tileCol = tileCol;
+            this.tileRow = tileRow;
+        }
+
+        /**
+         * Ключ в хранилище: вместо самого генератора - имя его класса.
+         * Для скрытых и анонимных классов имя не постоянно, и тогда
+         * возвращается null.
+         */
+        byte[] toBytes()
+        {
+            if (!(generator instanceof Class)) {
+                return null;
+            }
+            Class<?> type = (Class<?>) generator;
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeUTF(type.getName());
+                out.writeInt(maxIterations);
+                out.writeBoolean(smooth);
+                out.writeDouble(base.x);
+                out.writeDouble(base.y);
+                out.writeDouble(base.width);
+                out.writeDouble(base.height);
+                out.writeInt(baseSize);
+                out.writeInt(level);
+                byte[] col = tileCol.toByteArray();
+                out.writeShort(col.length);
+                out.write(col);
+                byte[] row = tileRow.toByteArray();
+                out.writeShort(row.length);
+                out.write(row);
+                return bytes.toByteArray();
+            }
+            catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return generator == key.generator
+                && maxIterations == key.maxIterations
+                && smooth == key.smooth && baseSize == key.baseSize
+                && level == key.level && tileCol.equals(key.tileCol)
+                && tileRow.equals(key.tileRow) && base.equals(key.base);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = System.identityHashCode(generator);
+            hash = 31 * hash + maxIterations;
+            hash = 31 * hash + (smooth ? 1 : 0);
+            hash = 31 * hash + base.hashCode();
+            hash = 31 * hash + baseSize;
+            hash = 31 * hash + level;
+            hash = 31 * hash + tileCol.hashCode();
+            hash = 31 * hash + tileRow.hashCode();
+            return hash;
+        }
+
+        /** Постоянно ли имя класса между запусками программы. **/
+        private static boolean isNamed(Class<?> type)
+        {
+            return !type.isHidden() && !type.isAnonymousClass();
+        }
+    }
+}
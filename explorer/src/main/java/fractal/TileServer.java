@@ -0,0 +1,538 @@
+package fractal;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP-сервер плиток для просмотра фракталов в браузере картографическими
+ * библиотеками. Плитка /{фрактал}/{z}/{x}/{y}.png - PNG TILE_SIZE x
+ * TILE_SIZE: на уровне z начальная область генератора делится на 2^z x 2^z
+ * плиток, x растет вправо, y вниз. Предел итераций выбирается по уровню,
+ * как IterationBudget.forLevels, если он не зафиксирован fractal.iterations.
+ * <p>
+ * Запросы обслуживает встроенный в JDK HttpServer, по виртуальному потоку
+ * на запрос, если JVM их поддерживает (Java 21 и новее), иначе по потоку
+ * из кэширующего пула. Сами плитки считаются в отдельном пуле из
+ * RenderEngine.defaultParallelism() потоков, поэтому сколько бы ни было
+ * запросов, вычисления не занимают больше процессоров. Одновременные
+ * запросы одной плитки ждут одного вычисления, а готовые PNG хранятся
+ * в кэше объемом fractal.cache.mb мегабайт.
+ * <p>
+ * Запуск:
+ * <pre>
+ * java TileServer [--port=N] [--palette=HUE|FIRE|GRAY] [--smooth]
+ * java TileServer --load-test [--clients=N] [--requests=N] [--max-zoom=N]
+ * </pre>
+ * Во втором случае сервер запускается на свободном порту, и N клиентов
+ * запрашивают случайные плитки уровней до max-zoom: сначала с пустым
+ * кэшем, затем ту же последовательность еще раз. Для каждого прохода
+ * печатаются запросы в секунду и процентили задержки.
+ */
+public class TileServer
+{
+    /** Сторона плитки в пикселях. **/
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * Самый глубокий уровень: дальше соседние пиксели плитки в double
+     * становятся неразличимы.
+     */
+    public static final int MAX_ZOOM = 40;
+
+    public static final int DEFAULT_PORT = 8080;
+
+    /** Уровень сжатия PNG: плитки кэшируются, и размер важнее скорости. **/
+    private static final int COMPRESSION = 6;
+
+    private static final Pattern TILE_PATH =
+        Pattern.compile("/(\\w+)/(\\d+)/(\\d+)/(\\d+)\\.png");
+
+    private final Map<String, FractalGenerator> fractals =
+        new LinkedHashMap<String, FractalGenerator>();
+    private final Palette palette;
+    private final boolean smooth;
+
+    /** Раскраска по пределу итераций; пределов немного, по одному на уровень. **/
+    private final Map<Integer, ColorMap> colorMaps =
+        new ConcurrentHashMap<Integer, ColorMap>();
+
+    private final ExecutorService renderPool;
+    private final ExecutorService requestExecutor;
+    private final EncodedCache cache;
+
+    /** Плитки, которые сейчас считаются, и их будущие PNG. **/
+    private final Map<Key, CompletableFuture<byte[]>> inFlight =
+        new ConcurrentHashMap<Key, CompletableFuture<byte[]>>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+    private final LongAdder rendered = new LongAdder();
+
+    private HttpServer server;
+
+    public TileServer(Palette palette, boolean smooth, long cacheCapacity)
+    {
+        fractals.put("mandelbrot", new Mandelbrot());
+        fractals.put("tricorn", new Tricorn());
+        fractals.put("burningship", new BurningShip());
+        this.palette = palette;
+        this.smooth = smooth;
+        this.cache = new EncodedCache(cacheCapacity);
+        this.renderPool = Executors.newFixedThreadPool(
+            RenderEngine.defaultParallelism(), r -> {
+                Thread thread = new Thread(r, "tile-render");
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.requestExecutor = requestExecutor();
+    }
+
+    /**
+     * Исполнитель запросов: виртуальный поток на задачу, если метод
+     * Executors.newVirtualThreadPerTaskExecutor есть в этой JVM. Он
+     * вызывается отражением, потому что проект собирается для Java 17.
+     */
+    static ExecutorService requestExecutor()
+    {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "tile-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** Запускает сервер на порту port; 0 - любой свободный. **/
+    public void start(int port) throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(requestExecutor);
+        server.start();
+    }
+
+    /** Порт, на котором сервер принимает запросы. **/
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+        requestExecutor.shutdownNow();
+        renderPool.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            Key key = parse(exchange.getRequestURI().getPath());
+            if (key == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            requests.increment();
+            byte[] png;
+            try {
+                png = tile(key);
+            }
+            catch (CompletionException e) {
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+
+            /** плитка по адресу никогда не меняется. */
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.getResponseHeaders().set("Cache-Control",
+                "public, max-age=86400");
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, png.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(png);
+            }
+        }
+    }
+
+    /** Ключ плитки по пути запроса или null, если такой плитки нет. **/
+    private Key parse(String path)
+    {
+        Matcher matcher = TILE_PATH.matcher(path);
+        if (!matcher.matches()) {
+            return null;
+        }
+        FractalGenerator fractal = fractals.get(matcher.group(1));
+        try {
+            int zoom = Integer.parseInt(matcher.group(2));
+            long x = Long.parseLong(matcher.group(3));
+            long y = Long.parseLong(matcher.group(4));
+            if (fractal == null || zoom > MAX_ZOOM
+                || x >= (1L << zoom) || y >= (1L << zoom)) {
+                return null;
+            }
+            return new Key(matcher.group(1), zoom, x, y);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * PNG плитки: из кэша, из уже идущего вычисления или новым
+     * вычислением в пуле рендеринга. Вызывающий поток ждет результата.
+     */
+    byte[] tile(Key key)
+    {
+        byte[] png = cache.get(key);
+        if (png != null) {
+            cacheHits.increment();
+            return png;
+        }
+        CompletableFuture<byte[]> mine = new CompletableFuture<byte[]>();
+        CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            shared.increment();
+            return running.join();
+        }
+
+        /** плитку могли досчитать между проверкой кэша и putIfAbsent. */
+        png = cache.get(key);
+        if (png != null) {
+            inFlight.remove(key, mine);
+            mine.complete(png);
+            cacheHits.increment();
+            return png;
+        }
+        renderPool.execute(() -> {
+            try {
+                byte[] encoded = render(key);
+                cache.put(key, encoded);
+                mine.complete(encoded);
+            }
+            catch (Throwable e) {
+                mine.completeExceptionally(e);
+            }
+            finally {
+                inFlight.remove(key, mine);
+            }
+        });
+        return mine.join();
+    }
+
+    /**
+     * Считает и кодирует плитку; выполняется в пуле рендеринга.
+     */
+    private byte[] render(Key key) throws IOException
+    {
+        FractalGenerator fractal = fractals.get(key.fractal);
+        Rectangle2D.Double initial = new Rectangle2D.Double();
+        fractal.getInitialRange(initial);
+        double tiles = Math.scalb(1.0, key.zoom);
+        double tileWidth = initial.width / tiles;
+        double tileHeight = initial.height / tiles;
+        double xMin = initial.x + key.x * tileWidth;
+        double yMin = initial.y + key.y * tileHeight;
+
+        int fixed = IterationBudget.fixed();
+        int maxIterations = (fixed > 0) ? fixed
+            : IterationBudget.forLevels(key.zoom);
+        ColorMap colors = colorMaps.computeIfAbsent(maxIterations,
+            limit -> new ColorMap(palette, limit, smooth));
+
+        int[] iterations = new int[TILE_SIZE];
+        float[] fractions = smooth ? new float[TILE_SIZE] : null;
+        int[] rgb = new int[TILE_SIZE];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 << 10);
+        try (PngStreamWriter png = new PngStreamWriter(bytes, TILE_SIZE,
+            TILE_SIZE, COMPRESSION)) {
+            for (int row = 0; row < TILE_SIZE; row++) {
+                double y = FractalGenerator.getCoord(yMin, yMin + tileHeight,
+                    TILE_SIZE, row);
+                if (fractions != null) {
+                    fractal.computeRowSmooth(xMin, xMin + tileWidth,
+                        TILE_SIZE, 0, y, iterations, fractions, 0, TILE_SIZE,
+                        maxIterations, null);
+                }
+                else {
+                    fractal.computeRow(xMin, xMin + tileWidth, TILE_SIZE, 0,
+                        y, iterations, 0, TILE_SIZE, maxIterations, null);
+                }
+                for (int col = 0; col < TILE_SIZE; col++) {
+                    rgb[col] = colors.color(iterations[col],
+                        fractions != null ? fractions[col] : 0f);
+                }
+                png.writeRow(rgb, 0);
+            }
+        }
+        rendered.increment();
+        return bytes.toByteArray();
+    }
+
+    /** Число обслуженных запросов плиток. **/
+    public long getRequests()
+    {
+        return requests.sum();
+    }
+
+    /** Запросы, для которых плитка нашлась в кэше. **/
+    public long getCacheHits()
+    {
+        return cacheHits.sum();
+    }
+
+    /** Запросы, дождавшиеся вычисления, начатого другим запросом. **/
+    public long getShared()
+    {
+        return shared.sum();
+    }
+
+    /** Сколько плиток было вычислено. **/
+    public long getRendered()
+    {
+        return rendered.sum();
+    }
+
+    /** Адрес плитки. **/
+    static final class Key
+    {
+        final String fractal;
+        final int zoom;
+        final long x;
+        final long y;
+
+        Key(String fractal, int zoom, long x, long y)
+        {
+            this.fractal = fractal;
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return zoom == key.zoom && x == key.x && y == key.y
+                && fractal.equals(key.fractal);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(fractal, zoom, x, y);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "/" + fractal + "/" + zoom + "/" + x + "/" + y + ".png";
+        }
+    }
+
+    /**
+     * Кэш закодированных плиток, ограниченный суммарным размером PNG;
+     * при превышении выбрасываются плитки, к которым дольше всего не
+     * обращались.
+     */
+    private static final class EncodedCache
+    {
+        private final long capacity;
+        private long usedBytes;
+        private final LinkedHashMap<Key, byte[]> entries =
+            new LinkedHashMap<Key, byte[]>(256, 0.75f, true);
+
+        EncodedCache(long capacity)
+        {
+            this.capacity = capacity;
+        }
+
+        synchronized byte[] get(Key key)
+        {
+            return entries.get(key);
+        }
+
+        synchronized void put(Key key, byte[] png)
+        {
+            byte[] previous = entries.put(key, png);
+            if (previous != null) {
+                usedBytes -= previous.length;
+            }
+            usedBytes += png.length;
+            Iterator<byte[]> iterator = entries.values().iterator();
+            while (usedBytes > capacity && iterator.hasNext()) {
+                usedBytes -= iterator.next().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Нагрузочный тест: clients клиентов в потоках исполнителя запросов
+     * делят между собой requests запросов случайных плиток уровней до
+     * maxZoom. Последовательность задается seed, так что второй проход
+     * повторяет первый уже при заполненном кэше.
+     */
+    private static void loadTest(TileServer tiles, String pass, int clients,
+        int requests, int maxZoom, long seed) throws Exception
+    {
+        HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(tiles.requestExecutor).build();
+        String base = "http://127.0.0.1:" + tiles.getPort();
+        String[] names = tiles.fractals.keySet().toArray(new String[0]);
+        RollingHistogram latency = new RollingHistogram(requests);
+        LongAdder failures = new LongAdder();
+        long rendered = tiles.getRendered();
+        long shared = tiles.getShared();
+        long hits = tiles.getCacheHits();
+
+        long start = System.nanoTime();
+        List<Future<?>> running = new ArrayList<Future<?>>();
+        for (int c = 0; c < clients; c++) {
+            final int share = requests / clients
+                + (c < requests % clients ? 1 : 0);
+            final Random random = new Random(seed + c);
+            running.add(tiles.requestExecutor.submit(() -> {
+                for (int i = 0; i < share; i++) {
+                    int zoom = random.nextInt(maxZoom + 1);
+                    String path = "/" + names[random.nextInt(names.length)]
+                        + "/" + zoom + "/" + random.nextInt(1 << zoom)
+                        + "/" + random.nextInt(1 << zoom) + ".png";
+                    HttpRequest request = HttpRequest.newBuilder(
+                        URI.create(base + path)).build();
+                    long sent = System.nanoTime();
+                    HttpResponse<byte[]> response = client.send(request,
+                        HttpResponse.BodyHandlers.ofByteArray());
+                    latency.record(System.nanoTime() - sent);
+                    if (response.statusCode() != 200) {
+                        failures.increment();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : running) {
+            future.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        HistogramSnapshot snapshot = latency.snapshot();
+        System.out.printf("%s: %d запросов за %.2f с, %.0f запросов/с;"
+            + " задержка мс: медиана %.2f, p90 %.2f, p99 %.2f, макс %.2f%n",
+            pass, requests, seconds, requests / seconds,
+            snapshot.getMedian() / 1e6, snapshot.getP90() / 1e6,
+            snapshot.getP99() / 1e6, snapshot.getMax() / 1e6);
+        System.out.printf("    вычислено плиток %d, из кэша %d,"
+            + " общих вычислений %d, ошибок %d%n",
+            tiles.getRendered() - rendered, tiles.getCacheHits() - hits,
+            tiles.getShared() - shared, failures.sum());
+    }
+
+    private static void usage()
+    {
+        System.err.println("использование: java TileServer [--port=N]"
+            + " [--palette=HUE|FIRE|GRAY] [--smooth]\n"
+            + "       java TileServer --load-test [--clients=N]"
+            + " [--requests=N] [--max-zoom=N]");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int port = DEFAULT_PORT;
+        Palette palette = StandardPalette.HUE;
+        boolean smooth = false;
+        boolean loadTest = false;
+        int clients = 64;
+        int requests = 2000;
+        int maxZoom = 5;
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring(7));
+            }
+            else if (arg.startsWith("--palette=")) {
+                palette = StandardPalette.valueOf(arg.substring(10).toUpperCase());
+            }
+            else if (arg.equals("--smooth")) {
+                smooth = true;
+            }
+            else if (arg.equals("--load-test")) {
+                loadTest = true;
+            }
+            else if (arg.startsWith("--clients=")) {
+                clients = Integer.parseInt(arg.substring(10));
+            }
+            else if (arg.startsWith("--requests=")) {
+                requests = Integer.parseInt(arg.substring(11));
+            }
+            else if (arg.startsWith("--max-zoom=")) {
+                maxZoom = Math.min(30, Integer.parseInt(arg.substring(11)));
+            }
+            else {
+                usage();
+            }
+        }
+
+        TileServer tiles = new TileServer(palette, smooth,
+            TileCache.defaultCapacity());
+        tiles.start(loadTest ? 0 : port);
+        String threads = tiles.requestExecutor.getClass().getSimpleName()
+            .contains("ThreadPerTask") ? "виртуальные потоки" : "пул потоков";
+        System.out.println("плитки на http://localhost:" + tiles.getPort()
+            + "/{mandelbrot|tricorn|burningship}/{z}/{x}/{y}.png, запросы: "
+            + threads + ", вычисления: " + RenderEngine.defaultParallelism()
+            + " потоков");
+        if (!loadTest) {
+            return;
+        }
+        try {
+            loadTest(tiles, "пустой кэш", clients, requests, maxZoom, 1);
+            loadTest(tiles, "полный кэш", clients, requests, maxZoom, 1);
+        }
+        finally {
+            tiles.stop();
+        }
+    }
+}
@@ -0,0 +1,593 @@
+package fractal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Хранилище плиток полей итераций на диске, второй уровень TileCache:
+ * вычисленные плитки переживают перезапуск программы. Файл целиком
+ * отображается в память (FileChannel.map), и плитки копируются из
+ * отображения прямо в поле кадра, без чтения в промежуточный буфер.
+ * <p>
+ * Файл состоит из заголовка HEADER_SIZE байт и записей, которые только
+ * дописываются в конец. Запись - заголовок записи, ключ плитки (см.
+ * TileCache) и числа итераций TILE_SIZE x TILE_SIZE, за ними дробные
+ * части, если они есть. Заголовок файла хранит конец подтвержденных
+ * записей в двух слотах с номером и контрольной суммой: новый конец
+ * пишется в другой слот только после сброса записей на диск, поэтому
+ * при сбое остается последнее целое состояние, а недописанные записи
+ * отбрасываются. Индекс ключей держится в памяти и при открытии
+ * восстанавливается по заголовкам записей.
+ * <p>
+ * Объем ограничен: когда место кончается, давно не читавшиеся плитки
+ * выбрасываются, а оставшиеся переписываются в новый файл, который
+ * атомарно заменяет старый; объем не больше 2 Гб, чтобы файл отображался
+ * одним буфером. Все методы синхронизированы, кроме сброса на диск в
+ * commit; файл одновременно открывает только один процесс. Хранить
+ * можно только точно вычисленные плитки: в записи не отмечено, каким
+ * режимом она получена.
+ */
+public final class TileStore implements Closeable
+{
+    private static final long MAGIC = 0x4652544c53544f52L;
+
+    /**
+     * Версия формата и вычислений; при изменении старый файл сбрасывается.
+     * Версия 2: файлы версии 1 могли содержать угаданные значения
+     * Мариани-Силвера.
+     */
+    private static final int VERSION = 2;
+
+    /** Заголовок файла; слоты по SLOT_SIZE байт в его начале. **/
+    private static final int HEADER_SIZE = 4096;
+    private static final int SLOT_SIZE = 64;
+
+    private static final int RECORD_MAGIC = 0x54494c45;
+
+    /** Заголовок записи: метка, длина ключа, длина данных, флаги. **/
+    private static final int RECORD_HEADER = 16;
+    private static final int FLAG_SMOOTH = 1;
+
+    /** После сжатия записи занимают не больше этой доли объема. **/
+    private static final double COMPACT_TARGET = 0.75;
+
+    private static final int TILE_PIXELS = TileCache.TILE_SIZE
+        * TileCache.TILE_SIZE;
+
+    private final Path path;
+    private final long capacity;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    private FileChannel channel;
+    private ByteBuffer map;
+
+    /** Номер последнего записанного слота заголовка. **/
+    private long sequence;
+
+    /** Конец записей и конец подтвержденных записей. **/
+    private long end;
+    private long committed;
+
+    private final HashMap<StoreKey, Record> index = new HashMap<StoreKey, Record>();
+
+    /** Не дает двум commit сбрасывать записи одновременно. **/
+    private final Object commitLock = new Object();
+
+    /** Часы обращений для выбора выбрасываемых записей. **/
+    private long clock;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Открывает или создает хранилище в файле path с объемом записей не
+     * больше capacity байт.
+     */
+    public TileStore(Path path, long capacity) throws IOException
+    {
+        if (capacity <= 0 || capacity > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("объем хранилища " + capacity);
+        }
+        this.path = path.toAbsolutePath();
+        this.capacity = capacity;
+        Path parent = this.path.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        lockChannel = FileChannel.open(sibling(".lock"),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("хранилище " + path
+                + " уже открыто другим процессом");
+        }
+        try {
+            Files.deleteIfExists(sibling(".tmp"));
+            open();
+            if (end - HEADER_SIZE > capacity) {
+                compact(0);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Хранилище по умолчанию: файл из системного свойства fractal.store
+     * (по умолчанию ~/.fractal/tiles.store, "off" - без хранилища) объемом
+     * fractal.store.mb мегабайт, по умолчанию 256. Если файл открыть не
+     * удалось, печатает предупреждение и возвращает null.
+     */
+    public static TileStore openDefault()
+    {
+        String name = System.getProperty("fractal.store",
+            System.getProperty("user.home") + File.separator + ".fractal"
+            + File.separator + "tiles.store");
+        if (name.isEmpty() || name.equals("off")) {
+            return null;
+        }
+        try {
+            return new TileStore(Paths.get(name),
+                Long.getLong("fractal.store.mb", 256) << 20);
+        }
+        catch (IOException e) {
+            System.err.println("хранилище плиток отключено: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Отображает файл и восстанавливает индекс. Файл чужого формата или
+     * без целого заголовка начинается заново.
+     */
+    private void open() throws IOException
+    {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), HEADER_SIZE + capacity);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+        index.clear();
+        if (!readHeader()) {
+            sequence = 0;
+            end = HEADER_SIZE;
+            committed = -1;
+            commitLocked();
+            return;
+        }
+        long position = HEADER_SIZE;
+        while (position < end) {
+            Record record = readRecord(position);
+            if (record == null) {
+                /** заголовок подтвердил испорченную запись: отбросим хвост. */
+                end = position;
+                committed = -1;
+                commitLocked();
+                break;
+            }
+            index.put(record.key, record);
+            position += record.length;
+        }
+    }
+
+    /**
+     * Читает слоты заголовка и берет целый слот с большим номером.
+     * Возвращает false, если целых слотов нет.
+     */
+    private boolean readHeader()
+    {
+        boolean found = false;
+        for (int slot = 0; slot < 2; slot++) {
+            int base = slot * SLOT_SIZE;
+            CRC32 crc = new CRC32();
+            crc.update(map.slice(base, 32));
+            if (map.getLong(base) != MAGIC || map.getInt(base + 8) != VERSION
+                || map.getInt(base + 32) != (int) crc.getValue()) {
+                continue;
+            }
+            long slotSequence = map.getLong(base + 16);
+            long slotEnd = map.getLong(base + 24);
+            if (slotEnd < HEADER_SIZE || slotEnd > map.capacity()) {
+                continue;
+            }
+            if (!found || slotSequence > sequence) {
+                sequence = slotSequence;
+                end = slotEnd;
+                committed = slotEnd;
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /** Запись по смещению position или null, если она испорчена. **/
+    private Record readRecord(long position)
+    {
+        if (position + RECORD_HEADER > end) {
+            return null;
+        }
+        int at = (int) position;
+        int keyLength = map.getInt(at + 4);
+        int payloadLength = map.getInt(at + 8);
+        int flags = map.getInt(at + 12);
+        int pixels = ((flags & FLAG_SMOOTH) != 0) ? 2 * TILE_PIXELS
+            : TILE_PIXELS;
+        if (map.getInt(at) != RECORD_MAGIC || keyLength <= 0
+            || payloadLength != 4 * pixels) {
+            return null;
+        }
+        long length = RECORD_HEADER + align(keyLength) + payloadLength;
+        if (position + length > end) {
+            return null;
+        }
+        byte[] key = new byte[keyLength];
+        map.get(at + RECORD_HEADER, key);
+        return new Record(new StoreKey(key), position, length,
+            (flags & FLAG_SMOOTH) != 0, ++clock);
+    }
+
+    /**
+     * Копирует пересечение сохраненной плитки с ключом key и кадра прямо
+     * из отображения в поле; tileX, tileY - положение плитки относительно
+     * кадра. Возвращает число скопированных пикселей или -1, если плитки
+     * нет.
+     */
+    public synchronized int read(byte[] key, IterationField field, int tileX,
+        int tileY)
+    {
+        Record record = (map != null) ? index.get(new StoreKey(key)) : null;
+        if (record == null || record.smooth != field.isSmooth()) {
+            misses++;
+            return -1;
+        }
+        hits++;
+        record.lastUse = ++clock;
+
+        int size = TileCache.TILE_SIZE;
+        int fromCol = Math.max(0, tileX);
+        int toCol = Math.min(field.width, tileX + size);
+        int fromRow = Math.max(0, tileY);
+        int toRow = Math.min(field.height, tileY + size);
+        int count = toCol - fromCol;
+        if (count <= 0 || toRow <= fromRow) {
+            return 0;
+        }
+
+        int payload = (int) record.payload();
+        IntBuffer iterations = map.slice(payload, 4 * TILE_PIXELS)
+            .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        FloatBuffer fractions = null;
+        if (field.fractions != null) {
+            fractions = map.slice(payload + 4 * TILE_PIXELS, 4 * TILE_PIXELS)
+                .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        }
+        for (int y = fromRow; y < toRow; y++) {
+            int fieldIndex = y * field.width + fromCol;
+            int entryIndex = (y - tileY) * size + (fromCol - tileX);
+            iterations.get(entryIndex, field.iterations, fieldIndex, count);
+            if (fractions != null) {
+                fractions.get(entryIndex, field.fractions, fieldIndex, count);
+            }
+        }
+        return count * (toRow - fromRow);
+    }
+
+    /** Есть ли в хранилище плитка с ключом key. **/
+    public synchronized boolean contains(byte[] key)
+    {
+        return index.containsKey(new StoreKey(key));
+    }
+
+    /**
+     * Дописывает полностью известную плитку в конец файла. Запись
+     * переживет сбой только после commit. Если места нет, хранилище
+     * сначала сжимается.
+     */
+    public synchronized void append(byte[] key, int[] iterations,
+        float[] fractions) throws IOException
+    {
+        StoreKey storeKey = new StoreKey(key);
+        if (map == null || index.containsKey(storeKey)) {
+            return;
+        }
+        boolean smooth = fractions != null;
+        int payloadLength = 4 * TILE_PIXELS * (smooth ? 2 : 1);
+        long length = RECORD_HEADER + align(key.length) + payloadLength;
+        if (length > capacity) {
+            return;
+        }
+        if (end + length > HEADER_SIZE + capacity) {
+            compact(length);
+        }
+
+        int at = (int) end;
+        map.putInt(at, RECORD_MAGIC);
+        map.putInt(at + 4, key.length);
+        map.putInt(at + 8, payloadLength);
+        map.putInt(at + 12, smooth ? FLAG_SMOOTH : 0);
+        map.put(at + RECORD_HEADER, key);
+        int payload = at + RECORD_HEADER + align(key.length);
+        map.slice(payload, 4 * TILE_PIXELS).order(ByteOrder.LITTLE_ENDIAN)
+            .asIntBuffer().put(iterations, 0, TILE_PIXELS);
+        if (smooth) {
+            map.slice(payload + 4 * TILE_PIXELS, 4 * TILE_PIXELS)
+                .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer()
+                .put(fractions, 0, TILE_PIXELS);
+        }
+        index.put(storeKey, new Record(storeKey, end, length, smooth,
+            ++clock));
+        end += length;
+    }
+
+    /**
+     * Сбрасывает дописанные записи на диск и подтверждает их новым
+     * концом в заголовке. Сброс на диск идет без блокировки хранилища,
+     * так что read и append в это время не ждут диска; одновременно
+     * выполняется только один commit. Если пока шел сброс, файл был
+     * сжат или закрыт, подтверждать нечего: сжатие и закрытие
+     * подтверждают свои записи сами.
+     */
+    public void commit() throws IOException
+    {
+        synchronized (commitLock) {
+            MappedByteBuffer mapped;
+            long from;
+            long to;
+            synchronized (this) {
+                if (map == null || end == committed) {
+                    return;
+                }
+                mapped = (MappedByteBuffer) map;
+                from = Math.max(committed, HEADER_SIZE);
+                to = end;
+            }
+            if (to > from) {
+                mapped.force((int) from, (int) (to - from));
+            }
+            synchronized (this) {
+                if (map != mapped) {
+                    return;
+                }
+                writeSlot(to);
+            }
+            mapped.force(0, HEADER_SIZE);
+        }
+    }
+
+    /**
+     * То же, что commit, но целиком под блокировкой хранилища; для
+     * открытия, сжатия и закрытия, которые и так ее держат.
+     */
+    private void commitLocked()
+    {
+        if (map == null || end == committed) {
+            return;
+        }
+        MappedByteBuffer mapped = (MappedByteBuffer) map;
+        long from = Math.max(committed, HEADER_SIZE);
+        if (end > from) {
+            mapped.force((int) from, (int) (end - from));
+        }
+        writeSlot(end);
+        mapped.force(0, HEADER_SIZE);
+    }
+
+    /**
+     * Пишет в следующий слот заголовка конец подтвержденных записей
+     * position; на диск слот попадает при следующем сбросе заголовка.
+     */
+    private void writeSlot(long position)
+    {
+        sequence++;
+        int base = (int) (sequence & 1) * SLOT_SIZE;
+        map.putLong(base, MAGIC);
+        map.putInt(base + 8, VERSION);
+        map.putInt(base + 12, 0);
+        map.putLong(base + 16, sequence);
+        map.putLong(base + 24, position);
+        CRC32 crc = new CRC32();
+        crc.update(map.slice(base, 32));
+        map.putInt(base + 32, (int) crc.getValue());
+        committed = position;
+    }
+
+    /**
+     * Выбрасывает давно не читавшиеся плитки так, чтобы записи занимали
+     * не больше COMPACT_TARGET объема и осталось место для reserve байт,
+     * и переписывает остальные по порядку в новый файл, который затем
+     * заменяет старый.
+     */
+    private void compact(long reserve) throws IOException
+    {
+        commitLocked();
+        long limit = Math.min((long) (COMPACT_TARGET * capacity),
+            capacity - reserve);
+        List<Record> records = new ArrayList<Record>(index.values());
+        records.sort(Comparator.comparingLong((Record r) -> r.lastUse)
+            .reversed());
+        List<Record> kept = new ArrayList<Record>();
+        long used = 0;
+        for (Record record : records) {
+            if (used + record.length > limit) {
+                evictions++;
+                continue;
+            }
+            used += record.length;
+            kept.add(record);
+        }
+
+        /** давние записи идут первыми, и порядок файла сохраняет давность. */
+        kept.sort(Comparator.comparingLong((Record r) -> r.lastUse));
+
+        Path temporary = sibling(".tmp");
+        try (FileChannel out = FileChannel.open(temporary,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE,
+                0, HEADER_SIZE + capacity);
+            target.order(ByteOrder.LITTLE_ENDIAN);
+            long position = HEADER_SIZE;
+            for (Record record : kept) {
+                target.put((int) position, map, (int) record.offset,
+                    (int) record.length);
+                position += record.length;
+            }
+
+            /** новый файл получает целый заголовок до замены старого. */
+            ByteBuffer old = map;
+            map = target;
+            sequence = 0;
+            committed = -1;
+            end = position;
+            commitLocked();
+            map = old;
+        }
+
+        channel.close();
+        map = null;
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+    /** Сколько плиток сейчас в хранилище. **/
+    public synchronized int size()
+    {
+        return index.size();
+    }
+
+    /** Сколько байт занимают записи. **/
+    public synchronized long getUsedBytes()
+    {
+        return end - HEADER_SIZE;
+    }
+
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+    /** Плитки, найденные в хранилище. **/
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /** Плитки, которых в хранилище не оказалось. **/
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /** Плитки, выброшенные при сжатии. **/
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /** Подтверждает записи и закрывает файл. **/
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try {
+            if (map != null) {
+                commitLocked();
+            }
+        }
+        finally {
+            map = null;
+            if (channel != null) {
+                channel.close();
+            }
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    private Path sibling(String suffix)
+    {
+        return path.resolveSibling(path.getFileName() + suffix);
+    }
+
+    /** Ключи выравниваются, чтобы данные записи начинались с кратного 8. **/
+    private static int align(int length)
+    {
+        return (length + 7) & ~7;
+    }
+
+    /** Положение и давность использования записи. **/
+    private static final class Record
+    {
+        final StoreKey key;
+        final long offset;
+        final long length;
+        final boolean smooth;
+        long lastUse;
+
+        Record(StoreKey key, long offset, long length, boolean smooth,
+            long lastUse)
+        {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+            this.smooth = smooth;
+            this.lastUse = lastUse;
+        }
+
+        long payload()
+        {
+            return offset + RECORD_HEADER + align(key.bytes.length);
+        }
+    }
+
+    /** Байты ключа с побайтовым сравнением. **/
+    private static final class StoreKey
+    {
+        final byte[] bytes;
+        private final int hash;
+
+        StoreKey(byte[] bytes)
+        {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            return other instanceof StoreKey
+                && Arrays.equals(bytes, ((StoreKey) other).bytes);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
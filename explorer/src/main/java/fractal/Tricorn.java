@@ -0,0 +1,258 @@
+package fractal;
+
+import java.awt.geom.Rectangle2D;
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+* Этот класс является подклассом Fractal Generator. Он используется для вычисления фрактала "Треугольник".
+ */
+public class Tricorn extends FractalGenerator implements PerturbationFormula
+{
+    /**
+      * Этот метод позволяет генератору фракталов указать, какая часть
+      * комплексной плоскости наиболее интересна для фрактала.
+      * Ему передается объект прямоугольника, и метод изменяет
+      * поля прямоугольника так, чтобы показать правильный начальный диапазон для фрактала.
+      * Эта реализация устанавливает начальный диапазон равным x = -2, y = -2, width = height = 4.
+     */
+    public void getInitialRange(Rectangle2D.Double range)
+    {
+        range.x = -2;
+        range.y = -2;
+        range.width = 4;
+        range.height = 4;
+    }
+    
+    /**
+     * Этот метод реализует итерационную функцию для фрактала "Треугольник"
+     */
+    public int numIterations(double x, double y, int maxIterations)
+    {
+        return escape(x, y, 0, 0, 0, maxIterations, null, null, 0);
+    }
+    
+    /**
+     * Отрезок ряда пикселей "Треугольника" одним вызовом,
+     * без виртуального вызова numIterations на каждый пиксель.
+     */
+    @Override
+    public void computeRow(double xMin, double xMax, int size, int from,
+        double y, int[] iterations, int offset, int count, int maxIterations,
+        double[] orbits)
+    {
+        EscapeKernel kernel = EscapeKernel.vector();
+        if (kernel != null)
+        {
+            kernel.computeRow(EscapeKernel.TRICORN, maxIterations, xMin, xMax,
+                size, from, y, iterations, offset, count, orbits);
+            return;
+        }
+        
+        double xRange = xMax - xMin;
+        for (int i = 0; i < count; i++)
+        {
+            double x = xMin + (xRange * (double) (from + i) / (double) size);
+            iterations[offset + i] = escape(x, y, 0, 0, 0, maxIterations,
+                null, orbits, offset + i);
+        }
+    }
+    
+    /**
+     * То же, что computeRow, но с дробными частями; всегда скалярно.
+     */
+    @Override
+    public void computeRowSmooth(double xMin, double xMax, int size,
+        int from, double y, int[] iterations, float[] fractions, int offset,
+        int count, int maxIterations, double[] orbits)
+    {
+        double xRange = xMax - xMin;
+        for (int i = 0; i < count; i++)
+        {
+            double x = xMin + (xRange * (double) (from + i) / (double) size);
+            iterations[offset + i] = escape(x, y, 0, 0, 0, maxIterations,
+                fractions, orbits, offset + i);
+        }
+    }
+    
+    /**
+     * Продолжает орбиту с сохраненного z, если оно есть, иначе считает
+     * точку с нуля.
+     */
+    @Override
+    public int continueIterations(double x, double y, int start,
+        int maxIterations, double[] orbits, int index, float[] fractions)
+    {
+        double zreal = orbits[2 * index];
+        double zimaginary = orbits[2 * index + 1];
+        if (Double.isNaN(zreal))
+        {
+            return escape(x, y, 0, 0, 0, maxIterations, fractions, orbits,
+                index);
+        }
+        return escape(x, y, zreal, zimaginary, start, maxIterations,
+            fractions, orbits, index);
+    }
+    
+    /**
+     * Шаг опорной орбиты Z' = conj(Z)^2 + C: от шага Мандельброта
+     * отличается только знаком мнимой части квадрата.
+     */
+    public void referenceStep(BigDecimal[] z, BigDecimal cx, BigDecimal cy,
+        MathContext mc)
+    {
+        BigDecimal zreal = z[0];
+        BigDecimal zimaginary = z[1];
+        z[0] = zreal.multiply(zreal, mc).subtract(
+            zimaginary.multiply(zimaginary, mc), mc).add(cx, mc);
+        z[1] = zreal.multiply(zimaginary, mc).multiply(BigDecimal.valueOf(-2))
+            .add(cy, mc);
+    }
+    
+    /**
+     * Для сопряженного квадрата отклонение d' = conj(2Zd + d^2) + dc.
+     */
+    public int iterateDelta(ReferenceOrbit orbit, int start, double dx,
+        double dy, double dcx, double dcy, float[] fractions, int index)
+    {
+        double[] referenceReal = orbit.real;
+        double[] referenceImaginary = orbit.imaginary;
+        int last = orbit.length - 1;
+        int reference = start;
+        int iteration = start;
+        double zreal = 0;
+        double zimaginary = 0;
+        
+        int maxIterations = orbit.maxIterations;
+        while (iteration < maxIterations)
+        {
+            zreal = referenceReal[reference] + dx;
+            zimaginary = referenceImaginary[reference] + dy;
+            double modulus = zreal * zreal + zimaginary * zimaginary;
+            if (modulus >= 4)
+            {
+                break;
+            }
+            
+            /** перенос отклонения на начало опорной орбиты. */
+            if (modulus < dx * dx + dy * dy || reference == last)
+            {
+                dx = zreal;
+                dy = zimaginary;
+                reference = 0;
+            }
+            
+            double real = referenceReal[reference];
+            double imaginary = referenceImaginary[reference];
+            double dxUpdated = 2 * (real * dx - imaginary * dy)
+                + dx * dx - dy * dy + dcx;
+            double dyUpdated = -2 * (real * dy + imaginary * dx)
+                - 2 * dx * dy + dcy;
+            dx = dxUpdated;
+            dy = dyUpdated;
+            reference += 1;
+            iteration += 1;
+        }
+        
+        if (iteration == maxIterations)
+        {
+            return -1;
+        }
+        if (fractions != null)
+        {
+            fractions[index] = smoothFraction(zreal, zimaginary);
+        }
+        return iteration;
+    }
+    
+    /**
+     * Сопряжение делает функцию неголоморфной, и ряд по степеням dc
+     * к ней не применим.
+     */
+    public boolean supportsSeries()
+    {
+        return false;
+    }
+    
+    /**
+     * Итерационная функция для точки x + iy, начиная со значения
+     * zreal + i zimaginary на итерации iteration (для новой точки - с нуля).
+     * Возвращает -1, если точка не покинула область за maxIterations
+     * итераций; тогда, если orbits не null, туда записывается последнее z.
+     * Если fractions не null, в fractions[index] записывается дробная
+     * часть числа итераций покинувшей область точки.
+     */
+    private static int escape(double x, double y, double zreal,
+        double zimaginary, int iteration, int maxIterations, float[] fractions,
+        double[] orbits, int index)
+    {
+        /** точка орбиты для поиска цикла, как в Mandelbrot. */
+        double savedReal = zreal;
+        double savedImaginary = zimaginary;
+        int nextSave = iteration + 1;
+        
+        /**
+         * Вычислить Zn = [комплексно-сопряженное (Zn-1)] ^ 2 + c, где значения
+         * комплексные числа, представленные zreal и zimaginary, Z0 = 0 и
+         * c - это конкретная точка фрактала, которую мы показываем.
+         * (задается x и y). Это повторяется до тех пор, пока Z ^ 2> 4 (абсолютное значение
+         * из Z больше 2) или достигнуто максимальное количество итераций.
+         */
+        while (iteration < maxIterations &&
+               zreal * zreal + zimaginary * zimaginary < 4)
+        {
+            double zrealUpdated = zreal * zreal - zimaginary * zimaginary + x;
+            double zimaginaryUpdated = -2 * zreal * zimaginary + y;
+            zreal = zrealUpdated;
+            zimaginary = zimaginaryUpdated;
+            iteration += 1;
+
+            /** орбита зациклилась - точка принадлежит множеству. */
+            if (zreal == savedReal && zimaginary == savedImaginary)
+            {
+                iteration = maxIterations;
+                break;
+            }
+            if (iteration == nextSave)
+            {
+                savedReal = zreal;
+                savedImaginary = zimaginary;
+                nextSave <<= 1;
+            }
+        }
+        
+        /**
+          * Если количество максимальных итераций достигнуто, возвращает -1
+         */
+        if (iteration == maxIterations)
+        {
+            if (orbits != null)
+            {
+                orbits[2 * index] = zreal;
+                orbits[2 * index + 1] = zimaginary;
+            }
+            return -1;
+        }
+        
+        if (fractions != null)
+        {
+            fractions[index] = smoothFraction(zreal, zimaginary);
+        }
+        return iteration;
+    }
+    
+    /**
+     * "Треуголка" симметрична относительно вещественной оси: при смене
+     * знака y каждая итерация лишь меняет знак мнимой части z.
+     */
+    @Override
+    public boolean isSymmetricAboutRealAxis()
+    {
+        return true;
+    }
+    
+    public String toString() {
+        return "Треугольник";
+    }
+    
+}
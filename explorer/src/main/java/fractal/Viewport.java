@@ -0,0 +1,247 @@
+package fractal;
+
+import java.awt.geom.Rectangle2D;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * Неизменяемый снимок отображаемой области комплексной плоскости.
+ * Задания рендеринга работают со снимком, поэтому изменение диапазона
+ * в FractalExplorer не влияет на уже запущенные вычисления.
+ * <p>
+ * Область может быть привязана к решетке пикселей: тогда она задается
+ * базовым диапазоном (начальным диапазоном фрактала), размером кадра,
+ * уровнем масштаба level (ширина пикселя равна базовой, деленной на 2^level)
+ * и номерами originCol, originRow левого верхнего пикселя на этом уровне.
+ * Пиксель (col, row) уровня level совпадает с пикселем (2 col, 2 row)
+ * уровня level + 1, поэтому уже вычисленные образцы можно переносить
+ * между кадрами при увеличении и уменьшении.
+ * <p>
+ * Номера пикселей хранятся целыми числами произвольной длины, поэтому
+ * положение области на решетке точно на любой глубине. Поля x, y, width,
+ * height - лишь приближение в double; точный центр для глубокого
+ * увеличения дают centerReal и centerImaginary.
+ */
+public final class Viewport
+{
+    /** Левый верхний угол области и ее размеры. **/
+    public final double x;
+    public final double y;
+    public final double width;
+    public final double height;
+
+    /** Базовый диапазон решетки и размер кадра; base == null без решетки. **/
+    private final Rectangle2D.Double base;
+    private final int baseSize;
+
+    /** Наибольший уровень; глубже ширина пикселя не представима в double. **/
+    public static final int MAX_LEVEL = 960;
+
+    /** Уровень масштаба и номер левого верхнего пикселя на этом уровне. **/
+    public final int level;
+    public final BigInteger originCol;
+    public final BigInteger originRow;
+
+    public Viewport(double x, double y, double width, double height)
+    {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.base = null;
+        this.baseSize = 0;
+        this.level = 0;
+        this.originCol = BigInteger.ZERO;
+        this.originRow = BigInteger.ZERO;
+    }
+
+    private Viewport(Rectangle2D.Double base, int baseSize, int level,
+        BigInteger originCol, BigInteger originRow)
+    {
+        double scale = Math.scalb(1.0, -level);
+        this.width = base.width * scale;
+        this.height = base.height * scale;
+        this.x = base.x + width * originCol.doubleValue() / (double) baseSize;
+        this.y = base.y + height * originRow.doubleValue() / (double) baseSize;
+        this.base = base;
+        this.baseSize = baseSize;
+        this.level = level;
+        this.originCol = originCol;
+        this.originRow = originRow;
+    }
+
+    /**
+     * Создает снимок текущего значения прямоугольника.
+     */
+    public static Viewport of(Rectangle2D.Double range)
+    {
+        return new Viewport(range.x, range.y, range.width, range.height);
+    }
+
+    /**
+     * Создает область, совпадающую с базовым диапазоном и привязанную
+     * к решетке пикселей кадра размером size.
+     */
+    public static Viewport lattice(Rectangle2D.Double base, int size)
+    {
+        Rectangle2D.Double copy = new Rectangle2D.Double(base.x, base.y,
+            base.width, base.height);
+        return new Viewport(copy, size, 0, BigInteger.ZERO, BigInteger.ZERO);
+    }
+
+    /** Базовый диапазон решетки или null для области без решетки. **/
+    Rectangle2D.Double getBase()
+    {
+        return base;
+    }
+
+    /** Размер кадра, на который рассчитана решетка. **/
+    int getBaseSize()
+    {
+        return baseSize;
+    }
+
+    /** Привязана ли область к решетке пикселей. **/
+    public boolean isLattice()
+    {
+        return base != null;
+    }
+
+    /**
+     * Проверяет, что две области лежат на одной решетке (у них общий
+     * базовый диапазон и размер кадра), и их пиксели можно сопоставить.
+     */
+    public boolean sharesLatticeWith(Viewport other)
+    {
+        return base != null && other != null && other.base != null
+            && baseSize == other.baseSize && base.equals(other.base);
+    }
+
+    /**
+     * Возвращает область, увеличенную (zoomIn) или уменьшенную вдвое
+     * с центром в пикселе (col, row) кадра размером size. Центр
+     * прижимается к пикселю с четными номерами, чтобы новая решетка точно
+     * совпала со старой. Для области без решетки масштабирует диапазон
+     * обычным образом. На уровне MAX_LEVEL увеличение не выполняется.
+     */
+    public Viewport zoom(int col, int row, int size, boolean zoomIn)
+    {
+        if (base == null) {
+            double centerX = xCoord(col, size);
+            double centerY = yCoord(row, size);
+            double scale = zoomIn ? 0.5 : 2;
+            double newWidth = width * scale;
+            double newHeight = height * scale;
+            return new Viewport(centerX - newWidth / 2,
+                centerY - newHeight / 2, newWidth, newHeight);
+        }
+
+        BigInteger centerCol = evenIndex(originCol, col);
+        BigInteger centerRow = evenIndex(originRow, row);
+        BigInteger half = BigInteger.valueOf(baseSize / 2);
+        if (zoomIn) {
+            if (level >= MAX_LEVEL) {
+                return this;
+            }
+            return new Viewport(base, baseSize, level + 1,
+                centerCol.shiftLeft(1).subtract(half),
+                centerRow.shiftLeft(1).subtract(half));
+        }
+        return new Viewport(base, baseSize, level - 1,
+            centerCol.shiftRight(1).subtract(half),
+            centerRow.shiftRight(1).subtract(half));
+    }
+
+    /**
+     * Возвращает область, сдвинутую так, что изображение кадра размером
+     * size смещается на dx пикселей вправо и dy вниз. Область на решетке
+     * остается на том же уровне, и все пиксели, оставшиеся в кадре,
+     * совпадают с пикселями старого кадра; size должен быть размером кадра
+     * решетки. Область без решетки сдвигается на dx и dy ширин пикселя.
+     */
+    public Viewport pan(int dx, int dy, int size)
+    {
+        if (base == null) {
+            return new Viewport(x - dx * width / size, y - dy * height / size,
+                width, height);
+        }
+        if (size != baseSize) {
+            throw new IllegalArgumentException("size " + size
+                + " is not the lattice size " + baseSize);
+        }
+        return new Viewport(base, baseSize, level,
+            originCol.subtract(BigInteger.valueOf(dx)),
+            originRow.subtract(BigInteger.valueOf(dy)));
+    }
+
+    /**
+     * Номер пикселя origin + offset, округленный вниз до четного.
+     */
+    private static BigInteger evenIndex(BigInteger origin, int offset)
+    {
+        return origin.add(BigInteger.valueOf(offset)).shiftRight(1).shiftLeft(1);
+    }
+
+    /**
+     * Точная вещественная координата столбца col кадра размером size на
+     * решетке, округленная до mc.
+     */
+    public BigDecimal exactX(int col, int size, MathContext mc)
+    {
+        return exactCoord(base.x, base.width, originCol, col, size, mc);
+    }
+
+    /**
+     * Точная мнимая координата ряда row кадра размером size на решетке,
+     * округленная до mc.
+     */
+    public BigDecimal exactY(int row, int size, MathContext mc)
+    {
+        return exactCoord(base.y, base.height, originRow, row, size, mc);
+    }
+
+    /**
+     * Координата пикселя: start + length * (origin + offset) * baseSize /
+     * (size * baseSize * 2^level). Кадр размером size делит ту же ширину
+     * уровня, что и кадр решетки.
+     */
+    private BigDecimal exactCoord(double start, double length,
+        BigInteger origin, int offset, int size, MathContext mc)
+    {
+        BigDecimal index = new BigDecimal(origin.multiply(
+            BigInteger.valueOf(size)).add(BigInteger.valueOf(
+            (long) offset * baseSize)));
+        BigDecimal denominator = new BigDecimal(BigInteger.valueOf(size)
+            .multiply(BigInteger.valueOf(baseSize)).shiftLeft(Math.max(level, 0)));
+        if (level < 0) {
+            index = index.multiply(new BigDecimal(BigInteger.ONE.shiftLeft(-level)));
+        }
+        return new BigDecimal(start).add(new BigDecimal(length)
+            .multiply(index).divide(denominator, mc), mc);
+    }
+
+    /**
+     * Диапазон области в виде прямоугольника.
+     */
+    public Rectangle2D.Double toRange()
+    {
+        return new Rectangle2D.Double(x, y, width, height);
+    }
+
+    /**
+     * Вещественная координата столбца пикселей col при ширине дисплея size.
+     */
+    public double xCoord(int col, int size)
+    {
+        return FractalGenerator.getCoord(x, x + width, size, col);
+    }
+
+    /**
+     * Вещественная координата ряда пикселей row при высоте дисплея size.
+     */
+    public double yCoord(int row, int size)
+    {
+        return FractalGenerator.getCoord(y, y + height, size, row);
+    }
+}
@@ -0,0 +1,350 @@
+package fractal;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.IntStream;
+import javax.imageio.ImageIO;
+
+/**
+ * Рендеринг анимации увеличения в последовательность кадров PNG без окна.
+ * <p>
+ * Каждый кадр меньше предыдущего в scale раз и центрирован на целевой
+ * точке. Фрактал считается не для каждого кадра, а только для ключевых
+ * кадров: они идут через каждое увеличение вдвое, имеют вдвое большее
+ * разрешение и лежат на решетке пикселей (см. Viewport), поэтому
+ * четверть каждого ключевого кадра переносится из предыдущего, а на
+ * большой глубине включается метод возмущений. Промежуточные кадры
+ * получаются билинейной выборкой из раскрашенного ключевого кадра.
+ * <p>
+ * Работа идет конвейером: пока поток вычислений считает следующий
+ * ключевой кадр, главный поток раскрашивает текущий и выбирает из него
+ * кадры, а отдельные потоки кодируют и записывают PNG.
+ * <pre>
+ * java ZoomAnimation генератор x y масштаб кадров размер каталог [параметры]
+ *   x, y        целевая точка, с любой точностью
+ *   масштаб     отношение ширины кадра к ширине предыдущего, например 0.98
+ *   --palette=имя, --smooth   как у PosterRenderer
+ * </pre>
+ */
+public class ZoomAnimation
+{
+    /** Сколько кадров может ожидать кодирования. **/
+    private static final int ENCODE_BACKLOG = 8;
+
+    /** Метка конца очереди ключевых кадров. **/
+    private static final Keyframe END = new Keyframe(null, 0, 0, 0);
+
+    private final FractalGenerator fractal;
+    private final BigDecimal targetX;
+    private final BigDecimal targetY;
+    private final double scale;
+    private final int frames;
+    private final int size;
+    private final ColorMap colors;
+    private final File directory;
+
+    /** Сколько пикселей генератор вычислил для всех ключевых кадров. **/
+    private long computedPixels;
+    private int keyframes;
+
+    /** Ошибка потока вычислений, если он завершился аварийно. **/
+    private volatile RuntimeException failure;
+
+    public ZoomAnimation(FractalGenerator fractal, BigDecimal targetX,
+        BigDecimal targetY, double scale, int frames, int size,
+        ColorMap colors, File directory)
+    {
+        this.fractal = fractal;
+        this.targetX = targetX;
+        this.targetY = targetY;
+        this.scale = scale;
+        this.frames = frames;
+        this.size = size;
+        this.colors = colors;
+        this.directory = directory;
+    }
+
+    /**
+     * Ключевой кадр: вычисленное задание и положение целевой точки
+     * в его пикселях.
+     */
+    private static final class Keyframe
+    {
+        final RenderJob job;
+        final double targetCol;
+        final double targetRow;
+        final int index;
+
+        Keyframe(RenderJob job, double targetCol, double targetRow, int index)
+        {
+            this.job = job;
+            this.targetCol = targetCol;
+            this.targetRow = targetRow;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Номер ключевого кадра, из которого берется кадр frame: ключевой
+     * кадр k покрывает кадры с относительной шириной в (1/2^(k+1), 1/2^k].
+     */
+    private int keyframeOf(int frame)
+    {
+        double halvings = frame * Math.log(scale) / Math.log(0.5);
+        return (int) Math.floor(halvings + 1e-9);
+    }
+
+    /**
+     * Считает и записывает все кадры в threads потоков вычислений.
+     */
+    public void render(int threads) throws Exception
+    {
+        BlockingQueue<Keyframe> queue = new ArrayBlockingQueue<Keyframe>(1);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ExecutorService encoders = Executors.newFixedThreadPool(2);
+        Semaphore backlog = new Semaphore(ENCODE_BACKLOG);
+        List<Future<?>> writes = new ArrayList<Future<?>>();
+
+        int lastKeyframe = keyframeOf(frames - 1);
+        Thread producer = new Thread(() -> {
+            try {
+                try {
+                    computeKeyframes(pool, queue, lastKeyframe);
+                }
+                catch (RuntimeException e) {
+                    failure = e;
+                    queue.put(END);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "keyframes");
+        producer.start();
+
+        try {
+            int frame = 0;
+            int[] rgb = null;
+            for (Keyframe key = queue.take(); key != END; key = queue.take()) {
+                int keySize = key.job.size;
+                if (rgb == null) {
+                    rgb = new int[keySize * keySize];
+                }
+                colors.apply(key.job.field, rgb);
+
+                for (; frame < frames && keyframeOf(frame) == key.index; frame++) {
+                    double relative = Math.pow(scale, frame)
+                        * Math.scalb(1.0, key.index);
+                    BufferedImage image = resample(rgb, keySize, key, relative);
+                    File file = new File(directory,
+                        String.format("frame%05d.png", frame));
+                    backlog.acquire();
+                    writes.add(encoders.submit(() -> {
+                        try {
+                            ImageIO.write(image, "png", file);
+                        }
+                        finally {
+                            backlog.release();
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> write : writes) {
+                write.get();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        finally {
+            producer.interrupt();
+            encoders.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Поток вычислений: считает ключевые кадры 0..last, каждый раз
+     * увеличивая область вдвое вокруг пикселя, ближайшего к целевой точке.
+     * Начальная область - первое увеличение начального диапазона, так что
+     * целевая точка с самого начала оказывается рядом с центром кадра.
+     */
+    private void computeKeyframes(ForkJoinPool pool,
+        BlockingQueue<Keyframe> queue, int last) throws InterruptedException
+    {
+        int keySize = 2 * size;
+        Rectangle2D.Double initial = new Rectangle2D.Double();
+        fractal.getInitialRange(initial);
+        Viewport viewport = zoomToTarget(Viewport.lattice(initial, keySize),
+            keySize);
+        IterationField previous = null;
+
+        for (int index = 0; index <= last; index++) {
+            RenderJob job = new RenderJob(index, fractal, viewport, keySize,
+                RenderMode.FULL, colors);
+            job.field.copyAlignedSamples(previous);
+            try {
+                pool.submit(() -> IntStream.range(0, keySize).parallel()
+                    .forEach(row -> job.computeMissing(row, 0, keySize))).get();
+                job.field.finishWriting();
+            }
+            catch (java.util.concurrent.ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            computedPixels += job.getComputedPixels();
+            keyframes++;
+
+            double[] target = targetPixel(viewport, keySize);
+            queue.put(new Keyframe(job, target[0], target[1], index));
+            previous = job.field;
+            viewport = zoomToTarget(viewport, keySize);
+        }
+        queue.put(END);
+    }
+
+    /**
+     * Положение целевой точки в пикселях кадра размером keySize.
+     */
+    private double[] targetPixel(Viewport viewport, int keySize)
+    {
+        MathContext mc = new MathContext(30
+            + (int) Math.ceil(Math.max(viewport.level, 0) * Math.log10(2)));
+        BigDecimal left = viewport.exactX(0, keySize, mc);
+        BigDecimal top = viewport.exactY(0, keySize, mc);
+        BigDecimal pixelWidth = viewport.exactX(1, keySize, mc).subtract(left);
+        BigDecimal pixelHeight = viewport.exactY(1, keySize, mc).subtract(top);
+        return new double[] {
+            targetX.subtract(left).divide(pixelWidth, mc).doubleValue(),
+            targetY.subtract(top).divide(pixelHeight, mc).doubleValue()
+        };
+    }
+
+    /**
+     * Следующий уровень решетки с центром у пикселя целевой точки.
+     */
+    private Viewport zoomToTarget(Viewport viewport, int keySize)
+    {
+        double[] target = targetPixel(viewport, keySize);
+        int col = (int) Math.max(0, Math.min(keySize - 1, Math.floor(target[0])));
+        int row = (int) Math.max(0, Math.min(keySize - 1, Math.floor(target[1])));
+        return viewport.zoom(col, row, keySize, true);
+    }
+
+    /**
+     * Кадр size x size с центром в целевой точке, занимающий долю relative
+     * ширины ключевого кадра, билинейной выборкой из rgb.
+     */
+    private BufferedImage resample(int[] rgb, int keySize, Keyframe key,
+        double relative)
+    {
+        BufferedImage image = new BufferedImage(size, size,
+            BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[size];
+        double step = relative * keySize / size;
+        for (int y = 0; y < size; y++) {
+            double v = key.targetRow + (y + 0.5 - size / 2.0) * step - 0.5;
+            for (int x = 0; x < size; x++) {
+                double u = key.targetCol + (x + 0.5 - size / 2.0) * step - 0.5;
+                row[x] = bilinear(rgb, keySize, u, v);
+            }
+            image.setRGB(0, y, size, 1, row, 0, size);
+        }
+        return image;
+    }
+
+    /**
+     * Билинейная интерполяция цвета в точке (u, v); за краем берется
+     * ближайший пиксель.
+     */
+    private static int bilinear(int[] rgb, int keySize, double u, double v)
+    {
+        u = Math.max(0, Math.min(keySize - 1, u));
+        v = Math.max(0, Math.min(keySize - 1, v));
+        int x0 = Math.min((int) u, keySize - 2);
+        int y0 = Math.min((int) v, keySize - 2);
+        double fx = u - x0;
+        double fy = v - y0;
+        int top = y0 * keySize + x0;
+        int bottom = top + keySize;
+        int result = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            double upper = channel(rgb[top], shift) * (1 - fx)
+                + channel(rgb[top + 1], shift) * fx;
+            double lower = channel(rgb[bottom], shift) * (1 - fx)
+                + channel(rgb[bottom + 1], shift) * fx;
+            int value = (int) Math.round(upper * (1 - fy) + lower * fy);
+            result |= value << shift;
+        }
+        return result;
+    }
+
+    private static int channel(int color, int shift)
+    {
+        return (color >> shift) & 0xff;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 7) {
+            System.err.println("использование: java ZoomAnimation"
+                + " mandelbrot|tricorn|burningship x y масштаб кадров размер"
+                + " каталог [--palette=HUE|FIRE|GRAY] [--smooth]");
+            System.exit(2);
+        }
+        FractalGenerator fractal = PosterRenderer.generator(args[0]);
+        BigDecimal targetX = new BigDecimal(args[1]);
+        BigDecimal targetY = new BigDecimal(args[2]);
+        double scale = Double.parseDouble(args[3]);
+        int frames = Integer.parseInt(args[4]);
+        int size = Integer.parseInt(args[5]);
+        File directory = new File(args[6]);
+        if (!(scale > 0 && scale < 1)) {
+            throw new IllegalArgumentException("масштаб должен быть в (0, 1)");
+        }
+
+        Palette palette = StandardPalette.HUE;
+        boolean smooth = false;
+        for (int i = 7; i < args.length; i++) {
+            if (args[i].startsWith("--palette=")) {
+                palette = StandardPalette.valueOf(
+                    args[i].substring(10).toUpperCase());
+            }
+            else if (args[i].equals("--smooth")) {
+                smooth = true;
+            }
+            else {
+                throw new IllegalArgumentException("неизвестный параметр: "
+                    + args[i]);
+            }
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("не удалось создать каталог " + directory);
+        }
+
+        ZoomAnimation animation = new ZoomAnimation(fractal, targetX, targetY,
+            scale, frames, size,
+            new ColorMap(palette, fractal.getMaxIterations(), smooth),
+            directory);
+        long start = System.nanoTime();
+        animation.render(RenderEngine.defaultParallelism());
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d кадров %dx%d за %.2f с, %.2f кадров/с;"
+            + " ключевых кадров %d, вычислено %.1f Мпикс%n", frames, size, size,
+            seconds, frames / seconds, animation.keyframes,
+            animation.computedPixels / 1e6);
+    }
+}
@@ -0,0 +1,215 @@
+package fractal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Сверяет векторное ядро со скалярным счетом бит в бит. Эталон -
+ * прямой цикл z^2 + c без проверки кардиоиды и поиска циклов: ранние
+ * выходы не должны менять ни число итераций, ни точку выхода орбиты.
+ * Без модуля jdk.incubator.vector тесты пропускаются.
+ */
+class VectorEscapeKernelTest
+{
+    /** Формулы ядра и генераторы, которые их используют. **/
+    private static final int[] FORMULAS = {
+        EscapeKernel.MANDELBROT, EscapeKernel.TRICORN, EscapeKernel.BURNING_SHIP
+    };
+
+    private EscapeKernel kernel;
+
+    @BeforeEach
+    void loadKernel()
+    {
+        kernel = EscapeKernel.vector();
+        assumeTrue(kernel != null, "векторное ядро недоступно");
+    }
+
+    /**
+     * Отрезки любой длины от 1 до 37 пикселей и с любым началом: последняя
+     * пачка дорожек почти всегда заполнена не целиком.
+     */
+    @Test
+    void tailLanesMatchScalar()
+    {
+        for (int formula : FORMULAS) {
+            for (int count = 1; count <= 37; count++) {
+                int from = (count * 7) % 23;
+                checkRow(formula, 500, -2.0, 1.0, 64, from, 0.4, count);
+            }
+        }
+    }
+
+    /**
+     * Ряд через главную кардиоиду и круг периода 2: у части дорожек пачки
+     * итерации не начинаются вовсе, у других идут до предела или выхода.
+     */
+    @Test
+    void cardioidLanesMatchScalar()
+    {
+        for (double y : new double[] {0.0, 0.05, -0.3, 0.6}) {
+            checkRow(EscapeKernel.MANDELBROT, 2000, -2.0, 0.5, 203, 0, y, 203);
+        }
+    }
+
+    /**
+     * Ряды через внутренние области, где орбиты сходятся к циклу и
+     * дорожки выключаются методом Брента задолго до большого предела.
+     */
+    @Test
+    void cycleDetectedLanesMatchScalar()
+    {
+        /** круг периода 3 Мандельброта **/
+        checkRow(EscapeKernel.MANDELBROT, 100000, -0.2, -0.05, 61, 0, 0.745, 61);
+        /** внутренность Tricorn и корпус Burning Ship **/
+        checkRow(EscapeKernel.TRICORN, 100000, -0.5, 0.5, 45, 0, 0.1, 45);
+        checkRow(EscapeKernel.BURNING_SHIP, 100000, -0.5, 0.0, 45, 0, -0.3, 45);
+    }
+
+    /**
+     * Плавный путь генераторов считается скалярно; его числа итераций
+     * должны совпадать с векторным computeRow, а дробные части - с эталоном.
+     */
+    @Test
+    void smoothPathMatchesVectorCounts()
+    {
+        int size = 77;
+        int maxIterations = 3000;
+        for (int formula : FORMULAS) {
+            FractalGenerator generator = generator(formula);
+            for (double y : new double[] {0.0, 0.25, -0.7, 0.745}) {
+                int[] vector = new int[size];
+                kernel.computeRow(formula, maxIterations, -2.0, 1.0, size, 0, y,
+                    vector, 0, size, null);
+
+                int[] smooth = new int[size];
+                float[] fractions = new float[size];
+                generator.computeRowSmooth(-2.0, 1.0, size, 0, y, smooth,
+                    fractions, 0, size, maxIterations, null);
+                assertArrayEquals(vector, smooth, "formula " + formula + ", y " + y);
+
+                for (int i = 0; i < size; i++) {
+                    double x = FractalGenerator.getCoord(-2.0, 1.0, size, i);
+                    double[] expected = reference(formula, x, y, maxIterations);
+                    float fraction = (expected[1] == 0) ? 0f
+                        : FractalGenerator.smoothFraction(expected[2], expected[3]);
+                    assertEquals(fraction, fractions[i],
+                        "formula " + formula + ", y " + y + ", pixel " + i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Орбиты, сохраненные ядром для оставшихся в области точек, позволяют
+     * поднять предел так, будто точки считались заново с новым пределом.
+     */
+    @Test
+    void savedOrbitsContinueLikeScalar()
+    {
+        int size = 53;
+        for (int formula : FORMULAS) {
+            FractalGenerator generator = generator(formula);
+            int[] iterations = new int[size];
+            double[] orbits = new double[2 * size];
+            kernel.computeRow(formula, 100, -2.0, 1.0, size, 0, 0.3,
+                iterations, 0, size, orbits);
+            for (int i = 0; i < size; i++) {
+                if (iterations[i] >= 0) {
+                    continue;
+                }
+                double x = FractalGenerator.getCoord(-2.0, 1.0, size, i);
+                int continued = generator.continueIterations(x, 0.3, 100, 5000,
+                    orbits, i, null);
+                assertEquals(generator.numIterations(x, 0.3, 5000), continued,
+                    "formula " + formula + ", pixel " + i);
+            }
+        }
+    }
+
+    /**
+     * Считает ряд ядром (с орбитами и без) со смещением в массиве и
+     * сравнивает каждый пиксель с эталоном и со скалярным numIterations.
+     */
+    private void checkRow(int formula, int maxIterations, double xMin,
+        double xMax, int size, int from, double y, int count)
+    {
+        int offset = 3;
+        int[] iterations = new int[offset + count + 2];
+        Arrays.fill(iterations, Integer.MIN_VALUE);
+        kernel.computeRow(formula, maxIterations, xMin, xMax, size, from, y,
+            iterations, offset, count, null);
+
+        int[] withOrbits = new int[iterations.length];
+        Arrays.fill(withOrbits, Integer.MIN_VALUE);
+        kernel.computeRow(formula, maxIterations, xMin, xMax, size, from, y,
+            withOrbits, offset, count, new double[2 * withOrbits.length]);
+        assertArrayEquals(iterations, withOrbits);
+
+        FractalGenerator generator = generator(formula);
+        for (int i = 0; i < count; i++) {
+            double x = FractalGenerator.getCoord(xMin, xMax, size, from + i);
+            String where = "formula " + formula + ", y " + y + ", pixel "
+                + (from + i) + " of " + count;
+            assertEquals((int) reference(formula, x, y, maxIterations)[0],
+                iterations[offset + i], where);
+            assertEquals(generator.numIterations(x, y, maxIterations),
+                iterations[offset + i], where);
+        }
+        assertEquals(Integer.MIN_VALUE, iterations[offset - 1]);
+        assertEquals(Integer.MIN_VALUE, iterations[offset + count]);
+    }
+
+    /**
+     * Прямой цикл без ранних выходов. Возвращает число итераций (-1, если
+     * точка не покинула область) и 1, если точка покинула область, с
+     * точкой выхода в последних двух элементах.
+     */
+    private static double[] reference(int formula, double x, double y,
+        int maxIterations)
+    {
+        double zreal = 0;
+        double zimaginary = 0;
+        int iteration = 0;
+        while (iteration < maxIterations
+            && zreal * zreal + zimaginary * zimaginary < 4) {
+            double zrealUpdated = zreal * zreal - zimaginary * zimaginary + x;
+            double zimaginaryUpdated;
+            switch (formula) {
+                case EscapeKernel.TRICORN:
+                    zimaginaryUpdated = -2 * zreal * zimaginary + y;
+                    break;
+                case EscapeKernel.BURNING_SHIP:
+                    zimaginaryUpdated = 2 * Math.abs(zreal) * Math.abs(zimaginary) + y;
+                    break;
+                default:
+                    zimaginaryUpdated = 2 * zreal * zimaginary + y;
+                    break;
+            }
+            zreal = zrealUpdated;
+            zimaginary = zimaginaryUpdated;
+            iteration += 1;
+        }
+        if (iteration == maxIterations) {
+            return new double[] {-1, 0, 0, 0};
+        }
+        return new double[] {iteration, 1, zreal, zimaginary};
+    }
+
+    private static FractalGenerator generator(int formula)
+    {
+        switch (formula) {
+            case EscapeKernel.TRICORN:
+                return new Tricorn();
+            case EscapeKernel.BURNING_SHIP:
+                return new BurningShip();
+            default:
+                return new Mandelbrot();
+        }
+    }
+}